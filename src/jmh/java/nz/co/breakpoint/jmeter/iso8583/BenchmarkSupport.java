@@ -0,0 +1,122 @@
+package nz.co.breakpoint.jmeter.iso8583;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import org.apache.jmeter.testelement.property.CollectionProperty;
+import org.apache.jmeter.threads.JMeterContext;
+import org.apache.jmeter.threads.JMeterContextService;
+import org.apache.jmeter.threads.JMeterVariables;
+import org.apache.jmeter.util.JMeterUtils;
+import org.jpos.iso.ISOException;
+import org.jpos.iso.ISOMsg;
+import org.jpos.iso.ISOResponseListener;
+import org.jpos.iso.MUX;
+import org.jpos.iso.channel.ASCIIChannel;
+
+/* Shared set-up for the benchmarks, mirroring what JMeter (or the unit tests) would initialise.
+ */
+class BenchmarkSupport {
+    static final String DEFAULT_3DES_KEY = "13131313131313131313131313131313";
+
+    // Fields that both the test and the demo packager define:
+    static final MessageField[] TRANSACTION_FIELDS = new MessageField[]{
+        new MessageField("0", "0200"),
+        new MessageField("11", "012345"),
+        new MessageField("35", "4111111111111111=99121011234567890"),
+        new MessageField("41", "JMETER01"),
+    };
+
+    static final MessageField[] ICC_FIELDS = new MessageField[]{
+        new MessageField("55.1", "000000000001", "9F02"),
+        new MessageField("55.2", "000000000000", "9F03"),
+        new MessageField("55.3", "0554", "9F1A"),
+        new MessageField("55.4", "0000000000", "95"),
+        new MessageField("55.5", "0554", "5F2A"),
+        new MessageField("55.6", "230123", "9A"),
+        new MessageField("55.7", "01", "9C"),
+        new MessageField("55.8", "11223344", "9F37"),
+        new MessageField("55.9", "5C00", "82"),
+        new MessageField("55.10", "0001", "9F36"),
+        new MessageField("55.11", "06011203000000", "9F10"),
+    };
+
+    private static boolean initialised;
+
+    static synchronized void initJMeter() {
+        if (!initialised) {
+            try {
+                File props = File.createTempFile("jmeter-iso8583-benchmark", ".properties");
+                props.deleteOnExit();
+                JMeterUtils.loadJMeterProperties(props.getAbsolutePath());
+                JMeterUtils.initLocale();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            initialised = true;
+        }
+        // JMeter contexts are thread-local, so every benchmark thread needs its own:
+        JMeterContext context = JMeterContextService.getContext();
+        if (context.getVariables() == null) {
+            context.setVariables(new JMeterVariables());
+        }
+    }
+
+    static Collection<MessageField> fields(MessageField[]... groups) {
+        Collection<MessageField> fields = new ArrayList<>();
+        for (MessageField[] group : groups) {
+            fields.addAll(Arrays.asList(group));
+        }
+        return fields;
+    }
+
+    static ISO8583Config config(String key, String packagerFile) {
+        ISO8583Config config = new ISO8583Config();
+        config.setConfigKey(key);
+        config.setPackager(packagerFile);
+        config.setClassname(ASCIIChannel.class.getName());
+        config.setHost("localhost");
+        config.setPort("0");
+        config.setReuseConnection(true);
+        return config;
+    }
+
+    static ISO8583Sampler sampler(ISO8583Config config, Collection<MessageField> fields) {
+        ISO8583Sampler sampler = new ISO8583Sampler();
+        // Avoid NPE when TestCompiler tries to configure sampler with null fields
+        sampler.setProperty(new CollectionProperty(ISO8583Component.FIELDS, new ArrayList<>()));
+        JMeterContextService.getContext().setCurrentSampler(sampler);
+        sampler.setFields(fields);
+        sampler.addTestElement(config);
+        return sampler;
+    }
+
+    /* In-process MUX that answers every request by unpacking its packed image into an approved response,
+     * so samples include the packing/unpacking work of a real channel, but no network or Q2 overhead.
+     */
+    static class LoopbackMUX implements MUX {
+        @Override
+        public ISOMsg request(ISOMsg m, long timeout) throws ISOException {
+            ISOMsg response = m.getPackager().createISOMsg();
+            response.setPackager(m.getPackager());
+            response.unpack(m.pack());
+            response.setResponseMTI();
+            response.set(39, "00");
+            return response;
+        }
+
+        @Override
+        public void request(ISOMsg m, long timeout, ISOResponseListener rl, Object handBack) throws ISOException {
+            rl.responseReceived(request(m, timeout), handBack);
+        }
+
+        @Override
+        public void send(ISOMsg m) {}
+
+        @Override
+        public boolean isConnected() { return true; }
+    }
+}
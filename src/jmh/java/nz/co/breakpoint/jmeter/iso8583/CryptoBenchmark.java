@@ -0,0 +1,70 @@
+package nz.co.breakpoint.jmeter.iso8583;
+
+import java.util.concurrent.TimeUnit;
+import org.apache.jmeter.threads.JMeterContextService;
+import org.jpos.iso.ISOMsg;
+import org.openjdk.jmh.annotations.*;
+
+/* ISO8583Crypto preprocessing, per operation, each including the (re)building of the sampler's request
+ * and the recovery of the temporary fields added by the preprocessor, like JMeter does for every sample.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CryptoBenchmark {
+
+    @Param({"pin", "dukpt", "mac", "arqc"})
+    public String operation;
+
+    ISO8583Crypto crypto;
+    ISO8583Sampler sampler;
+
+    @Setup
+    public void setup() {
+        BenchmarkSupport.initJMeter();
+        ISO8583Config config = BenchmarkSupport.config("crypto", "src/test/resources/test-packager.xml");
+        sampler = BenchmarkSupport.sampler(config,
+            BenchmarkSupport.fields(BenchmarkSupport.TRANSACTION_FIELDS, BenchmarkSupport.ICC_FIELDS));
+
+        crypto = new ISO8583Crypto();
+        switch (operation) {
+            case "pin":
+                sampler.addField(String.valueOf(ISO8583Crypto.PIN_FIELD_NO), "041277cccddddeee");
+                crypto.setPinField(String.valueOf(ISO8583Crypto.PIN_FIELD_NO));
+                crypto.setPinKey(BenchmarkSupport.DEFAULT_3DES_KEY);
+                break;
+            case "dukpt":
+                sampler.addField(String.valueOf(ISO8583Crypto.PIN_FIELD_NO), "041277cccddddeee");
+                sampler.addField(String.valueOf(ISO8583Crypto.KSN_FIELD_NO), "9876543210E00001");
+                crypto.setPinField(String.valueOf(ISO8583Crypto.PIN_FIELD_NO));
+                crypto.setKsnField(String.valueOf(ISO8583Crypto.KSN_FIELD_NO));
+                crypto.setPinKey(BenchmarkSupport.DEFAULT_3DES_KEY);
+                break;
+            case "mac":
+                crypto.setMacAlgorithm("DESEDE");
+                crypto.setMacKey(BenchmarkSupport.DEFAULT_3DES_KEY);
+                break;
+            case "arqc":
+                crypto.setIccField("55");
+                crypto.setImkac(BenchmarkSupport.DEFAULT_3DES_KEY);
+                break;
+            default:
+                throw new IllegalArgumentException(operation);
+        }
+        // From here on, fields added by the preprocessor are temporary:
+        sampler.setRunningVersion(true);
+        crypto.setRunningVersion(true);
+    }
+
+    @Benchmark
+    public ISOMsg process() {
+        JMeterContextService.getContext().setCurrentSampler(sampler);
+        crypto.process();
+        ISOMsg request = sampler.getRequest();
+        sampler.recoverRunningVersion();
+        return request;
+    }
+}
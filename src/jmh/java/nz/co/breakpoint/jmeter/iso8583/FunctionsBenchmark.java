@@ -0,0 +1,66 @@
+package nz.co.breakpoint.jmeter.iso8583;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import nz.co.breakpoint.jmeter.iso8583.functions.*;
+import org.apache.jmeter.engine.util.CompoundVariable;
+import org.apache.jmeter.functions.AbstractFunction;
+import org.apache.jmeter.functions.InvalidVariableException;
+import org.openjdk.jmh.annotations.*;
+
+/* The crypto functions, each with constant arguments (i.e. without variable substitution).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FunctionsBenchmark {
+
+    AbstractFunction calculateCVV, calculateDESKeyCheckValue, calculatePINBlock, encryptDESKey, generateDESKey;
+
+    @Setup
+    public void setup() throws InvalidVariableException {
+        BenchmarkSupport.initJMeter(); // functions need the JMeter locale for their resources
+        calculateCVV = new CalculateCVV();
+        calculateDESKeyCheckValue = new CalculateDESKeyCheckValue();
+        calculatePINBlock = new CalculatePINBlock();
+        encryptDESKey = new EncryptDESKey();
+        generateDESKey = new GenerateDESKey();
+
+        final String key = BenchmarkSupport.DEFAULT_3DES_KEY;
+        calculateCVV.setParameters(Arrays.asList(new CompoundVariable(key),
+            new CompoundVariable("4444333322221111"), new CompoundVariable("9911"), new CompoundVariable("101")));
+        calculateDESKeyCheckValue.setParameters(Arrays.asList(new CompoundVariable(key)));
+        calculatePINBlock.setParameters(Arrays.asList(new CompoundVariable("0000"),
+            new CompoundVariable("1"), new CompoundVariable("4444333322221111")));
+        encryptDESKey.setParameters(Arrays.asList(new CompoundVariable(key), new CompoundVariable(key)));
+        generateDESKey.setParameters(Arrays.asList(new CompoundVariable("128")));
+    }
+
+    @Benchmark
+    public String calculateCVV() throws InvalidVariableException {
+        return calculateCVV.execute(null, null);
+    }
+
+    @Benchmark
+    public String calculateDESKeyCheckValue() throws InvalidVariableException {
+        return calculateDESKeyCheckValue.execute(null, null);
+    }
+
+    @Benchmark
+    public String calculatePINBlock() throws InvalidVariableException {
+        return calculatePINBlock.execute(null, null);
+    }
+
+    @Benchmark
+    public String encryptDESKey() throws InvalidVariableException {
+        return encryptDESKey.execute(null, null);
+    }
+
+    @Benchmark
+    public String generateDESKey() throws InvalidVariableException {
+        return generateDESKey.execute(null, null);
+    }
+}
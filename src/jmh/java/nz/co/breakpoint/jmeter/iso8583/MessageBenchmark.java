@@ -0,0 +1,65 @@
+package nz.co.breakpoint.jmeter.iso8583;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import org.jpos.iso.ISOException;
+import org.jpos.iso.ISOMsg;
+import org.jpos.iso.ISOPackager;
+import org.openjdk.jmh.annotations.*;
+
+/* Building, packing and printing messages, as done for every sample.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MessageBenchmark {
+
+    @Param({"src/test/resources/test-packager.xml", "samples/demo-packager.xml"})
+    public String packagerFile;
+
+    ISOPackager packager;
+    Collection<MessageField> fields, overrides;
+    MessageBuilder builder;
+    ISOMsg msg;
+
+    @Setup
+    public void setup() throws ISOException {
+        BenchmarkSupport.initJMeter();
+        packager = PackagerRegistry.getPackager(packagerFile);
+        fields = BenchmarkSupport.fields(BenchmarkSupport.TRANSACTION_FIELDS, BenchmarkSupport.ICC_FIELDS);
+        overrides = Arrays.asList(
+            new MessageField("11", "543210"),
+            new MessageField("55.8", "44332211", "9F37"));
+        builder = new MessageBuilder().packager(packager);
+        msg = new MessageBuilder().packager(packager).define(fields).getMessage();
+    }
+
+    @Benchmark
+    public ISOMsg define() throws ISOException {
+        return builder.define(fields).getMessage();
+    }
+
+    @Benchmark
+    public ISOMsg defineAndExtend() throws ISOException {
+        return builder.define(fields).extend(overrides).getMessage();
+    }
+
+    @Benchmark
+    public byte[] defineAndPack() throws ISOException {
+        return builder.define(fields).getMessage().pack();
+    }
+
+    @Benchmark
+    public String asString() {
+        return MessagePrinter.asString(msg);
+    }
+
+    @Benchmark
+    public String asStringWithHexdump() {
+        return MessagePrinter.asString(msg, true);
+    }
+}
@@ -0,0 +1,62 @@
+package nz.co.breakpoint.jmeter.iso8583;
+
+import java.util.concurrent.TimeUnit;
+import org.apache.jmeter.samplers.SampleResult;
+import org.apache.jmeter.util.JMeterUtils;
+import org.jpos.util.NameRegistrar;
+import org.openjdk.jmh.annotations.*;
+
+/* Complete samples against an in-process loopback MUX (see BenchmarkSupport.LoopbackMUX),
+ * i.e. building, packing and validating messages plus rendering the result details, without any network I/O.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SamplerBenchmark {
+
+    @Param({"always", "none"})
+    public String resultDetail;
+
+    ISO8583Config config;
+    ISO8583Sampler sampler, asyncSampler;
+
+    @Setup
+    public void setup() {
+        BenchmarkSupport.initJMeter();
+        JMeterUtils.setProperty(ISO8583TestElement.RESULT_DETAIL, resultDetail);
+
+        config = BenchmarkSupport.config("benchmark-"+System.identityHashCode(this), "src/test/resources/test-packager.xml");
+        NameRegistrar.register("mux."+config.getMuxName(), new BenchmarkSupport.LoopbackMUX());
+
+        sampler = createSampler();
+        asyncSampler = createSampler();
+        asyncSampler.setMaxPendingRequests(10);
+    }
+
+    ISO8583Sampler createSampler() {
+        ISO8583Sampler sampler = BenchmarkSupport.sampler(config,
+            BenchmarkSupport.fields(BenchmarkSupport.TRANSACTION_FIELDS, BenchmarkSupport.ICC_FIELDS));
+        sampler.setTimeout(5000);
+        sampler.setResponseCodeField("39");
+        sampler.setSuccessResponseCode("00");
+        return sampler;
+    }
+
+    @TearDown
+    public void teardown() {
+        NameRegistrar.unregister("mux."+config.getMuxName());
+    }
+
+    @Benchmark
+    public SampleResult sample() {
+        return sampler.sample(null);
+    }
+
+    @Benchmark
+    public SampleResult sampleAsync() {
+        return asyncSampler.sample(null);
+    }
+}
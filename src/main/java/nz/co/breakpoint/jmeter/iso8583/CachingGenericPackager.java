@@ -0,0 +1,25 @@
+package nz.co.breakpoint.jmeter.iso8583;
+
+import org.jpos.iso.ISOException;
+import org.jpos.iso.ISOMsg;
+import org.jpos.iso.packager.GenericPackager;
+
+/** GenericPackager that creates {@link CachingISOMsg} instances, so that messages received by channels
+ * keep their raw image.
+ * Used for the plugin's channels as well as its shared packagers (see {@link PackagerRegistry}).
+ */
+public class CachingGenericPackager extends GenericPackager {
+
+    public CachingGenericPackager() throws ISOException {
+        super();
+    }
+
+    public CachingGenericPackager(String filename) throws ISOException {
+        super(filename);
+    }
+
+    @Override
+    public ISOMsg createISOMsg() {
+        return new CachingISOMsg();
+    }
+}
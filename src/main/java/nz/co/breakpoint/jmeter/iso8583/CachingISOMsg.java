@@ -0,0 +1,226 @@
+package nz.co.breakpoint.jmeter.iso8583;
+
+import java.io.IOException;
+import java.io.InputStream;
+import org.jpos.iso.ISOBasePackager;
+import org.jpos.iso.ISOBinaryField;
+import org.jpos.iso.ISOComponent;
+import org.jpos.iso.ISOException;
+import org.jpos.iso.ISOFieldPackager;
+import org.jpos.iso.ISOMsg;
+import org.jpos.iso.ISOPackager;
+
+/** ISOMsg that remembers its packed image, so it only gets packed once rather than for every
+ * consumer (sampler result size, hex dump, MAC calculation, and the channel that sends it).
+ * Any modification via this message's methods discards the image.
+ * Subfields modified directly on a child component (rather than via a field path) are not detected.
+ * <br>
+ * When unpacked (by the channel on receipt), the received bytes become the image, so response sizes
+ * can be determined without packing the message again.
+ * <br>
+ * The image must not be modified by callers of {@link #pack()}.
+ * <br>
+ * Also records when it was last packed and when it was unpacked (System.nanoTime() values),
+ * i.e. when the channel picked it up for sending and when it was received, see {@link ISO8583Metrics},
+ * and how long it took to connect if it was sent over a new connection (see {@link SelectorOneShotChannelAdaptor}).
+ */
+public class CachingISOMsg extends ISOMsg {
+
+    private static final long serialVersionUID = 1L;
+
+    protected transient byte[] image;
+    protected transient volatile long packTime, unpackStartTime, unpackEndTime, connectTime;
+
+    public CachingISOMsg() {
+        super();
+    }
+
+    public CachingISOMsg(String mti) {
+        super(mti);
+    }
+
+    @Override
+    public byte[] pack() throws ISOException {
+        synchronized (this) {
+            packTime = System.nanoTime();
+            if (image == null) {
+                image = super.pack();
+            }
+            return image;
+        }
+    }
+
+    @Override
+    public int unpack(byte[] b) throws ISOException {
+        synchronized (this) {
+            unpackStartTime = System.nanoTime();
+            int consumed = super.unpack(b);
+            image = consumed == b.length ? b : null;
+            unpackEndTime = System.nanoTime();
+            return consumed;
+        }
+    }
+
+    @Override
+    public void unpack(InputStream in) throws IOException, ISOException {
+        synchronized (this) {
+            super.unpack(in);
+            image = null;
+        }
+    }
+
+    public boolean isPacked() {
+        return image != null;
+    }
+
+    public long getPackTime() { return packTime; }
+
+    public long getUnpackStartTime() { return unpackStartTime; }
+
+    public long getUnpackEndTime() { return unpackEndTime; }
+
+    // Nanoseconds, or 0 if not connected for this message
+    public long getConnectTime() { return connectTime; }
+
+    public void setConnectTime(long connectTime) { this.connectTime = connectTime; }
+
+    // The channel will assign its own packager before packing, which is fine as long as it packs the same way:
+    @Override
+    public void setPackager(ISOPackager p) {
+        if (p != packager && !isEquivalent(p, packager)) {
+            image = null;
+        }
+        super.setPackager(p);
+    }
+
+    // Two packagers read from the same configuration file produce the same image
+    protected static boolean isEquivalent(ISOPackager a, ISOPackager b) {
+        return a instanceof CachingGenericPackager && b instanceof CachingGenericPackager &&
+            a.getDescription().equals(b.getDescription());
+    }
+
+    @Override
+    public void set(ISOComponent c) throws ISOException {
+        image = null;
+        super.set(c);
+    }
+
+    @Override
+    public void set(int fldno, String value) {
+        image = null;
+        super.set(fldno, value);
+    }
+
+    @Override
+    public void set(String fpath, String value) {
+        image = null;
+        super.set(fpath, value);
+    }
+
+    @Override
+    public void set(String fpath, ISOComponent c) throws ISOException {
+        image = null;
+        super.set(fpath, c);
+    }
+
+    @Override
+    public void set(String fpath, byte[] value) {
+        image = null;
+        super.set(fpath, value);
+    }
+
+    // Replacing the last field with a binary value of the same packed length (e.g. a MAC) patches the image:
+    @Override
+    public void set(int fldno, byte[] value) {
+        synchronized (this) {
+            byte[] patched = patchLastField(fldno, value);
+            super.set(fldno, value);
+            image = patched;
+        }
+    }
+
+    /* Returns the image with the last field's packed bytes replaced by the new value's, which is only possible if the
+     * image actually ends with them and the new value packs to the same length (e.g. the dummy value of a MAC field),
+     * or null otherwise. The image is modified in place.
+     */
+    protected byte[] patchLastField(int fldno, byte[] value) {
+        if (image == null || value == null || fldno != getMaxField() || !(packager instanceof ISOBasePackager)) {
+            return null;
+        }
+        ISOComponent old = getComponent(fldno);
+        ISOFieldPackager fp = ((ISOBasePackager) packager).getFieldPackager(fldno);
+        if (!(old instanceof ISOBinaryField) || fp == null) return null;
+        try {
+            byte[] oldBytes = fp.pack(old), newBytes = fp.pack(new ISOBinaryField(fldno, value));
+            final int offset = image.length - oldBytes.length;
+            if (newBytes.length != oldBytes.length || offset < 0) return null;
+            for (int i = 0; i < oldBytes.length; ++i) {
+                if (image[offset + i] != oldBytes[i]) return null;
+            }
+            System.arraycopy(newBytes, 0, image, offset, newBytes.length);
+            return image;
+        } catch (ISOException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public void unset(int fldno) {
+        image = null;
+        super.unset(fldno);
+    }
+
+    @Override
+    public void unset(int... flds) {
+        image = null;
+        super.unset(flds);
+    }
+
+    @Override
+    public void unset(String fpath) {
+        image = null;
+        super.unset(fpath);
+    }
+
+    @Override
+    public void unset(String... fpaths) {
+        image = null;
+        super.unset(fpaths);
+    }
+
+    @Override
+    public void setMTI(String mti) throws ISOException {
+        image = null;
+        super.setMTI(mti);
+    }
+
+    @Override
+    public void setResponseMTI() throws ISOException {
+        image = null;
+        super.setResponseMTI();
+    }
+
+    @Override
+    public void setRetransmissionMTI() throws ISOException {
+        image = null;
+        super.setRetransmissionMTI();
+    }
+
+    @Override
+    public void move(int oldFieldNumber, int newFieldNumber) throws ISOException {
+        image = null;
+        super.move(oldFieldNumber, newFieldNumber);
+    }
+
+    @Override
+    public void merge(ISOMsg m) {
+        image = null;
+        super.merge(m);
+    }
+
+    @Override
+    public void setValue(Object obj) throws ISOException {
+        image = null;
+        super.setValue(obj);
+    }
+}
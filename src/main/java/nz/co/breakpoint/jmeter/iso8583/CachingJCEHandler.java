@@ -0,0 +1,134 @@
+package nz.co.breakpoint.jmeter.iso8583;
+
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.Provider;
+import java.util.HashMap;
+import java.util.Map;
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.IvParameterSpec;
+import org.jpos.security.CipherMode;
+import org.jpos.security.jceadapter.JCEHandler;
+import org.jpos.security.jceadapter.JCEHandlerException;
+
+/** JCEHandler that reuses Cipher and Mac instances per thread, rather than looking up a new Cipher for every
+ * encryption and sharing one synchronized Mac per key between all threads.
+ * That way, a single SecurityModule can be shared by all threads without contention.
+ * <br>
+ * Cipher and Mac instances are not thread-safe, so must not be used outside the thread that obtained them.
+ */
+public class CachingJCEHandler extends JCEHandler {
+
+    protected final Provider provider;
+
+    protected final ThreadLocal<Map<String, Cipher>> ciphers = ThreadLocal.withInitial(HashMap::new);
+    protected final ThreadLocal<Map<String, MacEngine>> macEngines = ThreadLocal.withInitial(HashMap::new);
+
+    // Mac that only needs to be initialized when used with a different key:
+    protected static class MacEngine {
+        final Mac mac;
+        Key key;
+
+        MacEngine(Mac mac) {
+            this.mac = mac;
+        }
+    }
+
+    public CachingJCEHandler(Provider provider) {
+        super(provider);
+        this.provider = provider;
+    }
+
+    protected Cipher getCipher(String transformation) throws GeneralSecurityException {
+        Map<String, Cipher> cache = ciphers.get();
+        Cipher cipher = cache.get(transformation);
+        if (cipher == null) {
+            cipher = Cipher.getInstance(transformation, provider);
+            cache.put(transformation, cipher);
+        }
+        return cipher;
+    }
+
+    // Same as JCEHandler.doCryptStuff, but with a cached Cipher:
+    protected byte[] crypt(byte[] data, Key key, int mode, CipherMode cipherMode, byte[] iv) throws JCEHandlerException {
+        String transformation = key.getAlgorithm();
+        if (transformation.startsWith("DES")) {
+            transformation += "/" + cipherMode.name() + "/NoPadding";
+        }
+        try {
+            Cipher cipher = getCipher(transformation);
+            cipher.init(mode, key, cipherMode == CipherMode.ECB ? null : new IvParameterSpec(iv));
+            byte[] result = cipher.doFinal(data);
+            if (cipherMode != CipherMode.ECB) { // next IV, as returned by JCEHandler
+                System.arraycopy(result, result.length - 8, iv, 0, iv.length);
+            }
+            return result;
+        } catch (GeneralSecurityException e) {
+            throw new JCEHandlerException(e);
+        }
+    }
+
+    @Override
+    public byte[] encryptData(byte[] data, Key key) throws JCEHandlerException {
+        return crypt(data, key, Cipher.ENCRYPT_MODE, CipherMode.ECB, null);
+    }
+
+    @Override
+    public byte[] decryptData(byte[] encryptedData, Key key) throws JCEHandlerException {
+        return crypt(encryptedData, key, Cipher.DECRYPT_MODE, CipherMode.ECB, null);
+    }
+
+    @Override
+    public byte[] encryptDataCBC(byte[] data, Key key, byte[] iv) throws JCEHandlerException {
+        return crypt(data, key, Cipher.ENCRYPT_MODE, CipherMode.CBC, iv);
+    }
+
+    @Override
+    public byte[] decryptDataCBC(byte[] encryptedData, Key key, byte[] iv) throws JCEHandlerException {
+        return crypt(encryptedData, key, Cipher.DECRYPT_MODE, CipherMode.CBC, iv);
+    }
+
+    protected Mac getMac(Key key, String macAlgorithm) throws GeneralSecurityException {
+        Map<String, MacEngine> cache = macEngines.get();
+        MacEngine engine = cache.get(macAlgorithm);
+        if (engine == null) {
+            engine = new MacEngine(Mac.getInstance(macAlgorithm, provider));
+            cache.put(macAlgorithm, engine);
+        }
+        if (engine.key != key) {
+            engine.mac.init(key);
+            engine.key = key;
+        }
+        return engine.mac;
+    }
+
+    @Override
+    public byte[] generateMAC(byte[] data, Key key, String macAlgorithm) throws JCEHandlerException {
+        try {
+            return getMac(key, macAlgorithm).doFinal(data); // also resets the Mac
+        } catch (GeneralSecurityException e) {
+            throw new JCEHandlerException(e);
+        }
+    }
+
+    /** Calculates the MAC over part of the given data, without copying it, into the given output buffer.
+     * @return the number of MAC bytes written
+     * @throws JCEHandlerException if the algorithm or key are invalid, or the output buffer is too short
+     */
+    public int generateMAC(byte[] data, int offset, int length, Key key, String macAlgorithm, byte[] out, int outOffset)
+            throws JCEHandlerException {
+        try {
+            Mac mac = getMac(key, macAlgorithm);
+            final int macLength = mac.getMacLength();
+            if (out.length - outOffset < macLength) {
+                throw new JCEHandlerException("MAC output buffer too short for "+macLength+" bytes");
+            }
+            mac.update(data, offset, length);
+            mac.doFinal(out, outOffset);
+            return macLength;
+        } catch (GeneralSecurityException e) {
+            throw new JCEHandlerException(e);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package nz.co.breakpoint.jmeter.iso8583;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import org.jpos.iso.ISOException;
+import org.jpos.iso.ISOMsg;
+import org.jpos.iso.ISOResponseListener;
+import org.jpos.q2.iso.QMUX;
+
+/** QMUX that keeps track of the number of outstanding requests, i.e. requests that have been sent
+ * but neither been responded to nor expired yet (synchronous and asynchronous).
+ * QMUX's own counters don't cover asynchronous requests.
+ * Used by {@link LeastOutstandingStrategy} to select a connection.
+ */
+public class CountingQMUX extends QMUX {
+
+    protected final AtomicInteger outstanding = new AtomicInteger();
+
+    public int getOutstanding() {
+        return outstanding.get();
+    }
+
+    @Override
+    public ISOMsg request(ISOMsg m, long timeout) throws ISOException {
+        outstanding.incrementAndGet();
+        try {
+            return super.request(m, timeout);
+        } finally {
+            outstanding.decrementAndGet();
+        }
+    }
+
+    @Override
+    public void request(ISOMsg m, long timeout, ISOResponseListener rl, Object handBack) throws ISOException {
+        outstanding.incrementAndGet();
+        try {
+            super.request(m, timeout, new ISOResponseListener() {
+                @Override
+                public void responseReceived(ISOMsg resp, Object handBack) {
+                    outstanding.decrementAndGet();
+                    rl.responseReceived(resp, handBack);
+                }
+
+                @Override
+                public void expired(Object handBack) {
+                    outstanding.decrementAndGet();
+                    rl.expired(handBack);
+                }
+            }, handBack);
+        } catch (ISOException | RuntimeException e) {
+            outstanding.decrementAndGet();
+            throw e;
+        }
+    }
+}
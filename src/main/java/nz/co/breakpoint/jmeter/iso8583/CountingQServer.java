@@ -0,0 +1,249 @@
+package nz.co.breakpoint.jmeter.iso8583;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import org.jpos.iso.*;
+import org.jpos.q2.iso.QServer;
+
+/** QServer that keeps track of requests sent and responses received per incoming connection,
+ * and that can send requests to the connection with the fewest outstanding requests ("LEAST"),
+ * in addition to QServer's own send-request methods (LAST, RR, ALL).
+ * <br>
+ * A request is outstanding until a response is received on the same connection,
+ * or until the <i>outstanding-timeout</i> (ms; default 0, i.e. none) has passed since it was sent.
+ * So a connection that does not respond gets fewer requests, but only until it responds again.
+ * Ties are broken round-robin, so connections get used evenly under low load.
+ * <br>
+ * When a client disconnects, its counters are added to a summary of closed connections, which is logged
+ * together with the counters of the remaining connections when the QServer is stopped.
+ * <br>
+ * If a ready key is configured, its Space entry holds the number of connected clients while there are any
+ * (so QMUX's isConnected works, and the test start can wait for a number of connections without polling).
+ */
+public class CountingQServer extends QServer implements ISOServerEventListener {
+
+    public static final String LAST = "LAST", RR = "RR", ALL = "ALL", LEAST = "LEAST";
+
+    protected final Map<String, ConnectionCounters> counters = new ConcurrentHashMap<>();
+    protected final LongAdder closedConnections = new LongAdder(), closedSent = new LongAdder(),
+        closedReceived = new LongAdder();
+    protected final AtomicInteger msgno = new AtomicInteger();
+    protected int connections; // guarded by this
+    protected String sendMethod, ready;
+    protected long outstandingTimeout; // ns, 0 for none
+
+    /** Per-connection counters (thread-safe). */
+    public static class ConnectionCounters {
+        protected final long connected = System.currentTimeMillis();
+        protected final long outstandingTimeout; // ns, 0 for none
+        protected final AtomicInteger outstanding = new AtomicInteger(); // the number of deadlines
+        protected final Deque<Long> deadlines = new ConcurrentLinkedDeque<>(); // System.nanoTime(), 0 for none
+        protected final LongAdder sent = new LongAdder(), received = new LongAdder();
+
+        public ConnectionCounters(long outstandingTimeout) { this.outstandingTimeout = outstandingTimeout; }
+
+        public int getOutstanding() {
+            expire();
+            return outstanding.get();
+        }
+
+        protected void requestSent() {
+            deadlines.add(outstandingTimeout <= 0 ? 0 : System.nanoTime() + outstandingTimeout | 1); // not 0
+            outstanding.incrementAndGet();
+        }
+
+        protected void requestFailed() {
+            if (deadlines.pollLast() != null) outstanding.decrementAndGet();
+        }
+
+        // Responses are not matched to requests here, so the oldest one is no longer outstanding
+        protected void responseReceived() {
+            if (deadlines.poll() != null) outstanding.decrementAndGet();
+        }
+
+        protected void expire() {
+            final long now = System.nanoTime();
+            Long deadline;
+            while ((deadline = deadlines.peek()) != null && deadline != 0 && now - deadline >= 0) {
+                if (deadlines.remove(deadline)) outstanding.decrementAndGet();
+            }
+        }
+
+        public long getSent() { return sent.sum(); }
+
+        public long getReceived() { return received.sum(); }
+
+        // Messages received per second since connected
+        public double getThroughput() {
+            final long elapsed = System.currentTimeMillis() - connected;
+            return elapsed <= 0 ? 0 : getReceived() * 1000.0 / elapsed;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("outstanding=%d sent=%d received=%d throughput=%.1f/s",
+                getOutstanding(), getSent(), getReceived(), getThroughput());
+        }
+    }
+
+    @Override
+    public void startService() {
+        sendMethod = getPersist().getChildTextTrim("send-request");
+        if (sendMethod == null || sendMethod.isEmpty()) {
+            sendMethod = LAST;
+        }
+        ready = getPersist().getChildTextTrim("ready");
+        final String timeout = getPersist().getChildTextTrim("outstanding-timeout");
+        outstandingTimeout = timeout == null || timeout.isEmpty() ? 0 : TimeUnit.MILLISECONDS.toNanos(Long.parseLong(timeout));
+        super.startService();
+        final ISOServer server = getISOServer();
+        if (server != null) server.addServerEventListener(this);
+    }
+
+    @Override
+    public void stopService() {
+        counters.forEach((name, c) -> getLog().info(name + ": " + c));
+        if (closedConnections.sum() > 0) {
+            getLog().info(String.format("closed connections=%d sent=%d received=%d",
+                closedConnections.sum(), closedSent.sum(), closedReceived.sum()));
+        }
+        super.stopService();
+        if (ready != null) sp.inp(ready);
+    }
+
+    @Override
+    public synchronized void handleISOServerEvent(EventObject event) {
+        if (event instanceof ISOServerAcceptEvent) {
+            ++connections;
+        } else if (event instanceof ISOServerClientDisconnectEvent) {
+            closed(((ISOServerClientDisconnectEvent) event).getISOChannel());
+            if (connections == 0) return;
+            --connections;
+        } else {
+            return;
+        }
+        if (ready == null || ready.isEmpty()) return;
+        if (connections > 0) {
+            sp.put(ready, connections); // notifies listeners
+        } else {
+            sp.inp(ready);
+        }
+    }
+
+    /** @return counters by channel name, of connections that have not been closed */
+    public Map<String, ConnectionCounters> getConnectionCounters() {
+        return Collections.unmodifiableMap(counters);
+    }
+
+    protected ConnectionCounters getCounters(ISOChannel channel) {
+        return counters.computeIfAbsent(channel.getName(), name -> new ConnectionCounters(outstandingTimeout));
+    }
+
+    // Adds the channel's counters to the summary, so they don't accumulate over reconnects
+    protected void closed(ISOChannel channel) {
+        final ConnectionCounters c = channel == null ? null : counters.remove(channel.getName());
+        if (c == null) return;
+        closedConnections.increment();
+        closedSent.add(c.getSent());
+        closedReceived.add(c.getReceived());
+    }
+
+    protected ISOChannel[] getConnectedChannels() {
+        final ISOServer server = getISOServer();
+        final String names = getISOChannelNames();
+        if (server == null || names == null) return new ISOChannel[0];
+
+        return Arrays.stream(names.split(" "))
+            .filter(name -> !name.isEmpty())
+            .map(server::getISOChannel)
+            .filter(channel -> channel != null && channel.isConnected())
+            .toArray(ISOChannel[]::new);
+    }
+
+    protected ISOChannel selectLeastOutstanding(ISOChannel[] channels) {
+        final int n = channels.length;
+        if (n == 0) return null;
+
+        final int start = (msgno.getAndIncrement() & Integer.MAX_VALUE) % n;
+        ISOChannel selected = null;
+        int min = Integer.MAX_VALUE;
+        for (int i = 0; i < n; ++i) {
+            ISOChannel channel = channels[(start + i) % n];
+            int outstanding = getCounters(channel).getOutstanding();
+            if (outstanding < min) {
+                min = outstanding;
+                selected = channel;
+            }
+        }
+        return selected;
+    }
+
+    protected void send(ISOChannel channel, ISOMsg m) throws Exception {
+        if (channel == null) throw new ISOException("Server has no active connections");
+        if (!channel.isConnected()) throw new ISOException("Client disconnected");
+
+        final ConnectionCounters c = getCounters(channel);
+        final boolean request = isRequest(m);
+        if (request) c.requestSent();
+        try {
+            channel.send(m);
+            c.sent.increment();
+        } catch (Exception e) {
+            if (request) c.requestFailed();
+            throw e;
+        }
+    }
+
+    protected static boolean isRequest(ISOMsg m) {
+        try {
+            return m.isRequest();
+        } catch (ISOException ignoreBecauseMTIisMissing) {
+            return false;
+        }
+    }
+
+    // Same as QServer.notify, but counting, and with the additional LEAST method:
+    @Override
+    public void notify(Object key, Object value) {
+        final Object obj = sp.inp(key);
+        if (!(obj instanceof ISOMsg)) return;
+
+        final ISOMsg m = (ISOMsg) obj;
+        try {
+            if (LAST.equals(sendMethod)) {
+                send(getISOServer().getLastConnectedISOChannel(), m);
+            } else if (LEAST.equals(sendMethod)) {
+                send(selectLeastOutstanding(getConnectedChannels()), m);
+            } else if (RR.equals(sendMethod)) {
+                final ISOChannel[] channels = getConnectedChannels();
+                send(channels.length == 0 ? null : channels[(msgno.getAndIncrement() & Integer.MAX_VALUE) % channels.length], m);
+            } else if (ALL.equals(sendMethod)) {
+                for (ISOChannel channel : getConnectedChannels()) {
+                    try {
+                        send(channel, m);
+                    } catch (Exception e) {
+                        getLog().warn("notify", e);
+                    }
+                }
+            }
+        } catch (Exception e) {
+            getLog().warn("notify", e);
+        }
+    }
+
+    @Override
+    public boolean process(ISOSource source, ISOMsg m) {
+        if (source instanceof ISOChannel) {
+            final ConnectionCounters c = getCounters((ISOChannel) source);
+            c.received.increment();
+            if (!isRequest(m)) {
+                c.responseReceived();
+            }
+        }
+        return super.process(source, m);
+    }
+}
@@ -0,0 +1,148 @@
+package nz.co.breakpoint.jmeter.iso8583;
+
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.Map;
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+import org.jpos.iso.ISOUtil;
+import org.jpos.security.KeySerialNumber;
+
+/** DUKPT (TDES) PIN key derivation, with the same results as jPOS's JCESecurityModule.calculateDerivedKey,
+ * but caching the Initial PIN Encryption Key (IPEK) per BDK and device, as well as the keys derived for the
+ * previous transaction counter of that device.
+ * So rather than deriving the IPEK plus one key per transaction counter bit for every transaction,
+ * only the bits that changed since the previous transaction need to be processed
+ * (usually one or two for consecutive transaction counters).
+ * <br>
+ * Entries are kept for up to a maximum number of devices, after which the least recently used ones are evicted.
+ */
+public class DUKPTKeyCache {
+
+    public static final int DEFAULT_MAX_DEVICES = 20000;
+
+    static final int COUNTER_BITS = 21;
+    static final byte[] COUNTER_MASK = new byte[]{0x1F, (byte) 0xFF, (byte) 0xFF};
+    static final byte[] VARIANT = ISOUtil.hex2byte("C0C0C0C000000000");
+
+    // Cipher instances are not thread-safe, and expensive to create:
+    static final ThreadLocal<Cipher> des = ThreadLocal.withInitial(() -> {
+        try {
+            return Cipher.getInstance("DES/ECB/NoPadding");
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    protected final Map<String, Device> devices;
+
+    public DUKPTKeyCache() {
+        this(DEFAULT_MAX_DEVICES);
+    }
+
+    public DUKPTKeyCache(int maxDevices) {
+        devices = LRUMap.synchronizedLRUMap(maxDevices);
+    }
+
+    /** Derives the PIN encryption key (with PIN variant applied) for the given KSN.
+     *
+     * @param clearBDK double-length Base Derivation Key (32 hex digits)
+     * @param ksn Key Serial Number (up to 20 hex digits)
+     * @return the derived key (16 bytes)
+     * @throws GeneralSecurityException if the BDK or KSN are invalid
+     */
+    public byte[] getPINKey(String clearBDK, KeySerialNumber ksn) throws GeneralSecurityException {
+        final String digits = ksn.getBaseKeyID() + ksn.getDeviceID() + ksn.getTransactionCounter();
+        if (clearBDK == null || clearBDK.length() != 32 || digits.length() < 16 || digits.length() > 20) {
+            throw new GeneralSecurityException("Invalid BDK or KSN '"+digits+"'");
+        }
+        // The leftmost 8 bytes of the 10-byte KSN are used for the IPEK, the rightmost 8 bytes for the derivation:
+        final String padded = ("FFFF" + digits).substring(digits.length() - 16); // 20 digits
+        byte[] initialKsn = ISOUtil.hex2byte(padded.substring(0, 16));
+        initialKsn[7] &= (byte) 0xE0;
+        byte[] register = ISOUtil.hex2byte(digits.substring(digits.length() - 16));
+        register[5] &= (byte) 0xE0;
+        register[6] = register[7] = 0;
+
+        final String deviceKey = clearBDK + ISOUtil.byte2hex(initialKsn) + ISOUtil.byte2hex(register);
+        Device device = devices.get(deviceKey);
+        if (device == null) {
+            device = new Device(initialKey(ISOUtil.hex2byte(clearBDK), initialKsn), register);
+            Device existing = devices.putIfAbsent(deviceKey, device);
+            if (existing != null) device = existing;
+        }
+        byte[] key = device.derive(counter(ksn.getTransactionCounter())).clone();
+        key[7] ^= (byte) 0xFF; // PIN variant
+        key[15] ^= (byte) 0xFF;
+        return key;
+    }
+
+    // Only the rightmost 21 bits of the leftmost 3 bytes are considered (as by JCESecurityModule):
+    static int counter(String transactionCounter) {
+        final byte[] bytes = ISOUtil.hex2byte(transactionCounter);
+        int counter = 0;
+        for (int i = 0; i < Math.min(bytes.length, COUNTER_MASK.length); ++i) {
+            counter |= (bytes[i] & COUNTER_MASK[i] & 0xFF) << 8*(COUNTER_MASK.length - 1 - i);
+        }
+        return counter;
+    }
+
+    static byte[] initialKey(byte[] bdk, byte[] initialKsn) throws GeneralSecurityException {
+        byte[] left = Arrays.copyOfRange(bdk, 0, 8), right = Arrays.copyOfRange(bdk, 8, 16);
+        return ISOUtil.concat(encrypt3(initialKsn, left, right),
+            encrypt3(initialKsn, ISOUtil.xor(left, VARIANT), ISOUtil.xor(right, VARIANT)));
+    }
+
+    // Two-key triple DES (EDE):
+    static byte[] encrypt3(byte[] data, byte[] left, byte[] right) throws GeneralSecurityException {
+        return crypt(Cipher.ENCRYPT_MODE, crypt(Cipher.DECRYPT_MODE, crypt(Cipher.ENCRYPT_MODE, data, left), right), left);
+    }
+
+    static byte[] crypt(int mode, byte[] data, byte[] key) throws GeneralSecurityException {
+        Cipher cipher = des.get();
+        cipher.init(mode, new SecretKeySpec(key, "DES"));
+        return cipher.doFinal(data);
+    }
+
+    /* Derivation state of a device: keys[k] is the key after processing the transaction counter bits above k,
+     * so keys[COUNTER_BITS] is the IPEK and keys[0] the future key for the current counter.
+     */
+    protected static class Device {
+        final byte[] register; // rightmost 8 bytes of the KSN, with the transaction counter bits cleared
+        final byte[][] keys = new byte[COUNTER_BITS + 1][];
+        int counter = 0;
+
+        Device(byte[] ipek, byte[] register) {
+            this.register = register;
+            Arrays.fill(keys, ipek);
+        }
+
+        synchronized byte[] derive(int newCounter) throws GeneralSecurityException {
+            final int changed = newCounter ^ counter;
+            if (changed != 0) {
+                // keys above the highest changed bit remain the same:
+                for (int bit = 31 - Integer.numberOfLeadingZeros(changed); bit >= 0; --bit) {
+                    keys[bit] = (newCounter & 1 << bit) == 0 ? keys[bit + 1] :
+                        nonReversibleKey(keys[bit + 1], newCounter & -(1 << bit));
+                }
+                counter = newCounter;
+            }
+            return keys[0];
+        }
+
+        // Derives the next key, with the given counter bits set in the KSN register
+        byte[] nonReversibleKey(byte[] key, int counterBits) throws GeneralSecurityException {
+            byte[] ksn = register.clone();
+            ksn[5] |= (byte) (counterBits >>> 16);
+            ksn[6] |= (byte) (counterBits >>> 8);
+            ksn[7] |= (byte) counterBits;
+
+            byte[] left = Arrays.copyOfRange(key, 0, 8), right = Arrays.copyOfRange(key, 8, 16);
+            byte[] newRight = ISOUtil.xor(crypt(Cipher.ENCRYPT_MODE, ISOUtil.xor(ksn, right), left), right);
+            left = ISOUtil.xor(left, VARIANT);
+            right = ISOUtil.xor(right, VARIANT);
+            byte[] newLeft = ISOUtil.xor(crypt(Cipher.ENCRYPT_MODE, ISOUtil.xor(ksn, right), left), right);
+            return ISOUtil.concat(newLeft, newRight);
+        }
+    }
+}
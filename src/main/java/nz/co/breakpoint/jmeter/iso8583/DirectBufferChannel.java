@@ -0,0 +1,374 @@
+package nz.co.breakpoint.jmeter.iso8583;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+import org.jpos.core.Configuration;
+import org.jpos.core.ConfigurationException;
+import org.jpos.iso.BaseChannel;
+import org.jpos.iso.ISOException;
+import org.jpos.iso.ISOMsg;
+
+/** Channel with length-prefix framing (like ASCIIChannel or NACChannel), whose outgoing connections read and write
+ * via NIO through direct ByteBuffers, rather than through the buffered streams (and their heap arrays) of BaseChannel.
+ * <br>
+ * Each message is sent with a single socket write of the buffer (length prefix, header, message and trailer),
+ * and received bytes are copied from the buffer straight into the message image (which {@link CachingISOMsg} keeps).
+ * Length prefixes are encoded and decoded without intermediate Strings or arrays.
+ * The buffers are taken from a pool (per buffer size) when connecting and returned to it when disconnecting,
+ * so short-lived connections (e.g. without <i>Reuse Connection</i>) don't allocate direct memory every time.
+ * The pool only keeps up to <i>buffer-pool-size</i> buffers, so it does not hold on to the direct memory of a burst
+ * of connections.
+ * <br>
+ * Properties (in addition to BaseChannel's):<ul>
+ *   <li><i>length-prefix</i>: <code>ascii4</code> (default, as ASCIIChannel), <code>binary2</code> (as NACChannel),
+ *   or any other number of ASCII digits or binary bytes (big-endian), excluding the prefix itself.</li>
+ *   <li><i>buffer-size</i>: Bytes per buffer (default 8192). Longer messages are sent and received in parts.</li>
+ *   <li><i>buffer-pool-size</i>: Maximum number of idle buffers kept for reuse (default 64, per buffer size).
+ *   Further buffers are left to the garbage collector.</li>
+ *   <li><i>reuse-address</i>: Whether to set SO_REUSEADDR on outgoing sockets (default true).</li>
+ *   <li><i>linger</i>: SO_LINGER seconds when closing (default as BaseChannel), where 0 resets the connection
+ *   rather than leaving it in TIME_WAIT, and -1 turns SO_LINGER off.</li>
+ * </ul>
+ * Without <i>Reuse Connection</i>, connections are handled by a {@link SelectorOneShotChannelAdaptor}.
+ * Incoming connections (server mode) and connections via a socket factory (SSL) use the standard socket streams,
+ * with the same framing.
+ */
+public class DirectBufferChannel extends BaseChannel {
+
+    public static final int DEFAULT_BUFFER_SIZE = 8192, DEFAULT_BUFFER_POOL_SIZE = 64;
+
+    // Idle buffers by capacity, so channels with different buffer sizes don't discard each other's
+    protected static final ConcurrentMap<Integer, BlockingQueue<ByteBuffer>> pools = new ConcurrentHashMap<>();
+
+    protected boolean asciiLength = true;
+    protected int lengthSize = 4; // digits or bytes
+    protected int maxLength = 9999;
+    protected int bufferSize = DEFAULT_BUFFER_SIZE;
+    protected int bufferPoolSize = DEFAULT_BUFFER_POOL_SIZE;
+    protected int connectTimeout;
+    protected boolean reuseAddress = true;
+    protected boolean localAddress;
+
+    @Override
+    public void setConfiguration(Configuration cfg) throws ConfigurationException {
+        super.setConfiguration(cfg);
+        setLengthPrefix(cfg.get("length-prefix", "ascii4"));
+        bufferSize = cfg.getInt("buffer-size", DEFAULT_BUFFER_SIZE);
+        if (bufferSize <= 0) {
+            throw new ConfigurationException("Invalid buffer-size "+bufferSize);
+        }
+        bufferPoolSize = cfg.getInt("buffer-pool-size", DEFAULT_BUFFER_POOL_SIZE);
+        connectTimeout = cfg.getInt("connect-timeout", getTimeout());
+        reuseAddress = cfg.getBoolean("reuse-address", true);
+        if (cfg.get("linger", null) != null) { // otherwise BaseChannel's default
+            final int linger = cfg.getInt("linger");
+            setSoLinger(linger >= 0, Math.max(0, linger));
+        }
+        localAddress = !cfg.get("local-iface", "").isEmpty() || cfg.getInt("local-port") != 0;
+    }
+
+    public void setLengthPrefix(String lengthPrefix) throws ConfigurationException {
+        final String spec = lengthPrefix.trim().toLowerCase();
+        final boolean ascii = spec.startsWith("ascii");
+        final int size;
+        try {
+            size = Integer.parseInt(spec.substring(ascii ? 5 : spec.startsWith("binary") ? 6 : spec.length()));
+        } catch (NumberFormatException e) {
+            throw new ConfigurationException("Invalid length-prefix '"+lengthPrefix+"' (expecting e.g. ascii4 or binary2)");
+        }
+        if (size < 1 || size > (ascii ? 9 : 4)) {
+            throw new ConfigurationException("Invalid length-prefix size '"+lengthPrefix+"'");
+        }
+        asciiLength = ascii;
+        lengthSize = size;
+        maxLength = ascii ? POWERS_OF_TEN[size - 1] * 10 - 1 : size == 4 ? Integer.MAX_VALUE : (1 << 8*size) - 1;
+    }
+
+    // The pool for this channel's buffer size (whose capacity is determined by the first channel that uses it)
+    protected BlockingQueue<ByteBuffer> getPool() {
+        return bufferPoolSize <= 0 ? null
+            : pools.computeIfAbsent(bufferSize, size -> new ArrayBlockingQueue<>(bufferPoolSize));
+    }
+
+    // Takes a buffer from the pool, or allocates one
+    protected ByteBuffer acquireBuffer() {
+        final Queue<ByteBuffer> pool = getPool();
+        final ByteBuffer buffer = pool == null ? null : pool.poll();
+        if (buffer == null) return ByteBuffer.allocateDirect(bufferSize);
+
+        ((Buffer) buffer).clear(); // cast for Java 8 compatibility
+        return buffer;
+    }
+
+    // Returns the buffer to the pool for its size, unless that is full (then the garbage collector frees it)
+    protected static void releaseBuffer(ByteBuffer buffer) {
+        final Queue<ByteBuffer> pool = pools.get(buffer.capacity());
+        if (pool != null) pool.offer(buffer);
+    }
+
+    @Override
+    protected Socket newSocket(String host, int port) throws IOException {
+        if (getSocketFactory() != null || localAddress) return super.newSocket(host, port);
+
+        final SocketChannel channel = SocketChannel.open();
+        try {
+            channel.setOption(StandardSocketOptions.SO_REUSEADDR, reuseAddress);
+            channel.socket().connect(new InetSocketAddress(host, port), connectTimeout);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return channel.socket();
+    }
+
+    // Replaces the standard streams that BaseChannel.connect(Socket) created with buffer-backed ones:
+    @Override
+    protected void postConnectHook() throws IOException {
+        super.postConnectHook();
+        final SocketChannel channel = getSocket().getChannel();
+        if (channel == null) return; // e.g. SSL, or accepted by a ServerSocket
+
+        channel.configureBlocking(false);
+        synchronized (serverInLock) {
+            serverIn = new DataInputStream(new ChannelInputStream(channel, acquireBuffer(), this::getTimeout));
+        }
+        synchronized (serverOutLock) {
+            serverOut = new DataOutputStream(new ChannelOutputStream(channel, acquireBuffer(), this::getTimeout));
+        }
+    }
+
+    @Override
+    protected void sendMessageLength(int len) throws IOException {
+        checkMessageLength(len);
+        for (int i = 0; i < lengthSize; ++i) {
+            serverOut.write(lengthByte(len, i));
+        }
+    }
+
+    @Override
+    protected int getMessageLength() throws IOException, ISOException {
+        int len;
+        do { // skip zero lengths (keep-alives)
+            len = 0;
+            for (int i = 0; i < lengthSize; ++i) {
+                len = addLengthByte(len, serverIn.readUnsignedByte());
+            }
+        } while (len == 0);
+        return len;
+    }
+
+    protected void checkMessageLength(int len) throws IOException {
+        if (len > maxLength) {
+            throw new IOException("Message length "+len+" exceeds "+maxLength);
+        }
+    }
+
+    // As BaseChannel.receive checks incoming lengths (a binary4 prefix with the high bit set is negative)
+    protected void checkIncomingLength(int len) throws ISOException {
+        if (len < 0 || len > getMaxPacketLength()) {
+            throw new ISOException("receive length "+len+" seems strange - maxPacketLength = "+getMaxPacketLength());
+        }
+    }
+
+    // The i-th byte (from 0) of the length prefix, so it can be written without intermediate arrays
+    protected int lengthByte(int len, int i) {
+        final int digit = lengthSize - 1 - i;
+        return (asciiLength ? '0' + len / POWERS_OF_TEN[digit] % 10 : len >> 8*digit) & 0xFF;
+    }
+
+    // The length so far, followed by the next (unsigned) byte of the length prefix
+    protected int addLengthByte(int len, int b) throws ISOException {
+        if (!asciiLength) return len << 8 | b;
+        if (b < '0' || b > '9') {
+            throw new ISOException("Invalid message length character 0x"+Integer.toHexString(b));
+        }
+        return len * 10 + b - '0';
+    }
+
+    // Header sent with a message: its own, unless the channel's overrides it (as in BaseChannel.sendMessageHeader)
+    protected byte[] getOutgoingHeader(ISOMsg m) {
+        return m.getHeader() != null && !overrideHeader ? m.getHeader() : header;
+    }
+
+    protected int getIncomingHeaderLength() {
+        return getHeaderLength();
+    }
+
+    public int getLengthSize() { return lengthSize; }
+
+    public int getBufferSize() { return bufferSize; }
+
+    public int getConnectTimeout() { return connectTimeout; }
+
+    public boolean isReuseAddress() { return reuseAddress; }
+
+    protected static final int[] POWERS_OF_TEN = {
+        1, 10, 100, 1000, 10000, 100000, 1000000, 10000000, 100000000
+    };
+
+    /** Reads from a non-blocking SocketChannel via a direct buffer, waiting up to the channel timeout for data.
+     */
+    protected static class ChannelInputStream extends InputStream {
+        protected final SocketChannel channel;
+        protected final Selector selector;
+        protected final IntSupplier timeout;
+        protected ByteBuffer buffer; // null once closed
+        protected volatile boolean closed;
+
+        protected ChannelInputStream(SocketChannel channel, ByteBuffer buffer, IntSupplier timeout) throws IOException {
+            this.channel = channel;
+            this.buffer = buffer;
+            this.timeout = timeout;
+            ((Buffer) buffer).limit(0); // empty
+            selector = Selector.open();
+            channel.register(selector, SelectionKey.OP_READ);
+        }
+
+        @Override
+        public synchronized int read() throws IOException {
+            return fill() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public synchronized int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            if (!fill()) return -1;
+            final int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public synchronized int available() {
+            return buffer == null ? 0 : buffer.remaining();
+        }
+
+        // Makes sure the buffer has data, or returns false at the end of the stream
+        protected boolean fill() throws IOException {
+            if (buffer == null) throw new SocketException("Socket closed");
+            if (buffer.hasRemaining()) return true;
+
+            ((Buffer) buffer).clear();
+            int n;
+            try {
+                final int millis = timeout.getAsInt();
+                final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+                while ((n = channel.read(buffer)) == 0) {
+                    selector.select(millis > 0 ? Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())) : 0);
+                    selector.selectedKeys().clear();
+                    if (closed) throw new SocketException("Socket closed");
+                    if (millis > 0 && System.nanoTime() - deadline >= 0) throw new SocketTimeoutException("Read timed out");
+                }
+            } finally {
+                ((Buffer) buffer).flip();
+            }
+            return n > 0;
+        }
+
+        // Interrupts a blocked read and returns the buffer to the pool once that has finished
+        @Override
+        public void close() throws IOException {
+            closed = true;
+            selector.wakeup();
+            synchronized (this) {
+                if (buffer == null) return;
+                releaseBuffer(buffer);
+                buffer = null;
+                selector.close();
+            }
+        }
+    }
+
+    /** Writes to a non-blocking SocketChannel via a direct buffer, when flushed or when the buffer is full.
+     */
+    protected static class ChannelOutputStream extends OutputStream {
+        protected final SocketChannel channel;
+        protected final Selector selector;
+        protected final IntSupplier timeout;
+        protected ByteBuffer buffer; // null once closed
+        protected volatile boolean closed;
+
+        protected ChannelOutputStream(SocketChannel channel, ByteBuffer buffer, IntSupplier timeout) throws IOException {
+            this.channel = channel;
+            this.buffer = buffer;
+            this.timeout = timeout;
+            selector = Selector.open();
+            channel.register(selector, SelectionKey.OP_WRITE);
+        }
+
+        @Override
+        public synchronized void write(int b) throws IOException {
+            if (buffer == null) throw new SocketException("Socket closed");
+            if (!buffer.hasRemaining()) drain();
+            buffer.put((byte) b);
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) throws IOException {
+            if (buffer == null) throw new SocketException("Socket closed");
+            while (len > 0) {
+                if (!buffer.hasRemaining()) drain();
+                final int n = Math.min(len, buffer.remaining());
+                buffer.put(b, off, n);
+                off += n;
+                len -= n;
+            }
+        }
+
+        @Override
+        public synchronized void flush() throws IOException {
+            if (buffer == null) throw new SocketException("Socket closed");
+            drain();
+        }
+
+        // Writes the buffer's content, waiting up to the channel timeout while the socket's send buffer is full
+        protected void drain() throws IOException {
+            ((Buffer) buffer).flip();
+            try {
+                final int millis = timeout.getAsInt();
+                final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+                while (buffer.hasRemaining()) {
+                    if (channel.write(buffer) > 0) continue;
+                    selector.select(millis > 0 ? Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())) : 0);
+                    selector.selectedKeys().clear();
+                    if (closed) throw new SocketException("Socket closed");
+                    if (millis > 0 && System.nanoTime() - deadline >= 0) throw new SocketTimeoutException("Write timed out");
+                }
+            } finally {
+                buffer.compact();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            closed = true;
+            selector.wakeup();
+            synchronized (this) {
+                if (buffer == null) return;
+                releaseBuffer(buffer);
+                buffer = null;
+                selector.close();
+            }
+        }
+    }
+}
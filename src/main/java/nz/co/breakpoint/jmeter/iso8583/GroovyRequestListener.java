@@ -5,8 +5,11 @@ import groovy.lang.GroovyShell;
 import groovy.lang.Script;
 import java.io.File;
 import java.io.IOException;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.apache.jmeter.util.JMeterUtils;
 import org.codehaus.groovy.control.CompilationFailedException;
+import org.codehaus.groovy.runtime.InvokerHelper;
 import org.jpos.core.Configurable;
 import org.jpos.core.Configuration;
 import org.jpos.iso.ISOMsg;
@@ -15,12 +18,24 @@ import org.jpos.iso.ISOSource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/** Runs a Groovy script for incoming requests.
+ * The script is compiled once, and every thread runs its own instance of it (with its own Binding),
+ * as the ISOServer or QMUX may call the listener from many threads at the same time.
+ * <br>
+ * Optionally (with a <i>threads</i> property greater than 0), the script runs on a bounded thread pool
+ * instead of the receiving thread, so slow scripts don't hold up reading further messages.
+ * When all pool threads are busy and the queue is full, the receiving thread runs the script itself.
+ */
 @SuppressWarnings("unused")
 public class GroovyRequestListener implements ISORequestListener, Configurable {
 
     private static final Logger log = LoggerFactory.getLogger(GroovyRequestListener.class);
 
-    protected Script script;
+    protected static final int QUEUE_SIZE_PER_THREAD = 1000;
+
+    protected Class<? extends Script> scriptClass;
+    protected ThreadLocal<Script> scripts;
+    protected ExecutorService executor;
 
     @Override
     public void setConfiguration(Configuration cfg) {
@@ -30,19 +45,50 @@ public class GroovyRequestListener implements ISORequestListener, Configurable {
         log.info("Compiling script {}", filename);
 
         try {
-            script = shell.parse(new File(filename));
+            scriptClass = shell.parse(new File(filename)).getClass();
+            scripts = ThreadLocal.withInitial(() -> InvokerHelper.createScript(scriptClass, new Binding()));
         } catch (CompilationFailedException e) {
             log.error("Script compilation failure: {}", e.getMessage());
         } catch (IOException e) {
             log.error("Error accessing file {}", filename, e);
         }
+
+        final int threads = cfg.getInt("threads", 0);
+        if (threads > 0) {
+            executor = createExecutor(threads);
+        }
+    }
+
+    // Idle threads terminate, as there is no notification when the listener is no longer used:
+    protected static ExecutorService createExecutor(int threads) {
+        final AtomicInteger threadNo = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 10, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(threads * QUEUE_SIZE_PER_THREAD),
+            r -> {
+                Thread t = new Thread(r, GroovyRequestListener.class.getSimpleName()+"-"+threadNo.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            },
+            new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
     }
 
     @Override
     public boolean process(ISOSource source, ISOMsg message) {
-        if (script == null) {
+        if (scriptClass == null) {
             return false;
         }
+        if (executor == null) {
+            run(source, message);
+        } else {
+            executor.execute(() -> run(source, message));
+        }
+        return true;
+    }
+
+    protected void run(ISOSource source, ISOMsg message) {
+        Script script = scripts.get();
         Binding bindings = script.getBinding();
         bindings.setVariable("message", message);
         bindings.setVariable("source", source);
@@ -52,7 +98,9 @@ public class GroovyRequestListener implements ISORequestListener, Configurable {
             script.run();
         } catch (Exception e) {
             log.error("Error in script", e);
+        } finally {
+            bindings.setVariable("message", null); // don't hold on to the message until the next one
+            bindings.setVariable("source", null);
         }
-        return true;
     }
 }
@@ -0,0 +1,213 @@
+package nz.co.breakpoint.jmeter.iso8583;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import org.apache.jmeter.samplers.Entry;
+import org.apache.jmeter.samplers.SampleResult;
+import org.apache.jmeter.save.CSVSaveService;
+import org.apache.jmeter.services.FileServer;
+import org.apache.jmeter.testelement.property.IntegerProperty;
+import org.jpos.iso.ISOException;
+import org.jpos.iso.ISOMsg;
+import org.jpos.util.NameRegistrar;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/** Sends a batch of ISOMsgs per sampler execution, pipelined over the MUX of an {@link ISO8583Config} element
+ * with up to getMaxPendingRequests() awaiting responses at any time,
+ * e.g. for echo bursts or store-and-forward advices.
+ * <br>
+ * The messages are built from the sampler's fields (as the template), with fields overridden per message
+ * by the lines of an optional CSV file (where the first line has the field numbers).
+ * Without a file, the template is sent getBatchSize() times with an incremented STAN (field 11) each,
+ * as the MUX needs to be able to match each response to its request.
+ * <br>
+ * The result covers the whole batch, and contains one sub-result per message (in sending order).
+ */
+public class ISO8583BatchSampler extends ISO8583Sampler {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final Logger log = LoggerFactory.getLogger(ISO8583BatchSampler.class);
+
+    public static final String
+        BATCHSIZE = "batchSize",
+        BATCHFILE = "batchFile";
+
+    protected static final int STAN_FIELD_NO = 11;
+
+    protected transient String batchFileName; // the file batchLines were read from
+    protected transient List<List<MessageField>> batchLines; // field overrides per message
+    protected transient int nextLine; // continues with the next line in the next batch
+
+    @Override
+    public SampleResult sample(Entry entry) {
+        SampleResult batch = new SampleResult();
+        batch.setSampleLabel(getName());
+        batch.setDataType(SampleResult.TEXT);
+
+        final List<ISOMsg> messages = buildBatch();
+        if (messages.isEmpty()) {
+            batch.setResponseMessage("No messages");
+            return batch;
+        }
+        final int maxPending = getMaxPendingRequests();
+        final Semaphore window = new Semaphore(maxPending > 0 ? maxPending : Integer.MAX_VALUE);
+        final BlockingQueue<PendingRequest> completed = new LinkedBlockingQueue<>();
+        final List<PendingRequest> sent = new ArrayList<>(messages.size());
+        int done = 0, successful = 0;
+
+        batch.sampleStart();
+        try {
+            for (ISOMsg request : messages) {
+                if (!window.tryAcquire()) { // its permit gets passed on to the next request
+                    successful += complete(completed.take());
+                    ++done;
+                }
+                final long buildStart = System.nanoTime();
+                PendingRequest pending = new PendingRequest(request, createResult(request));
+                pending.buildStart = buildStart;
+                send(pending, completed);
+                sent.add(pending);
+            }
+            for (; done < sent.size(); ++done) {
+                successful += complete(completed.take());
+            }
+        } catch (InterruptedException e) {
+            log.debug("Interrupted while waiting for pending requests");
+            Thread.currentThread().interrupt();
+        }
+        for (PendingRequest pending : sent) {
+            if (pending.end != 0) batch.addSubResult(pending.result); // unless interrupted
+        }
+        // Sub-results (ended on other threads) have already extended the end time, which must not go back:
+        batch.setEndTime(Math.max(batch.getEndTime(), batch.currentTimeInMillis()));
+        batch.setSuccessful(successful == messages.size());
+        batch.setResponseMessage(successful+" of "+messages.size()+" successful"
+            + (done < messages.size() ? " ("+(messages.size() - done)+" not completed)" : ""));
+        if (batch.isSuccessful()) batch.setResponseCodeOK();
+        return batch;
+    }
+
+    // Hands the request over to the MUX, or (for fire-and-forget) completes it straight away
+    protected void send(PendingRequest pending, BlockingQueue<PendingRequest> completed) {
+        log.debug("sampleStart");
+        pending.result.sampleStart();
+        pending.sendStart = System.nanoTime();
+        try {
+            if (getTimeout() > 0) {
+                config.getMux().request(pending.request, getTimeout(), pending, completed);
+                return;
+            }
+            sendRequest(pending.request);
+        } catch (ISOException | NameRegistrar.NotFoundException e) {
+            log.error((e instanceof ISOException) ? "Send failed" : "Incorrect configuration", e);
+            pending.result.setResponseMessage(e.toString());
+            pending.failed = true;
+        }
+        pending.end();
+        completed.add(pending);
+    }
+
+    // Processes the completed request's response and returns 1 if successful (0 otherwise)
+    protected int complete(PendingRequest done) {
+        completeAsync(done);
+        return done.result.isSuccessful() ? 1 : 0;
+    }
+
+    protected List<ISOMsg> buildBatch() {
+        final List<List<MessageField>> lines = getBatchLines();
+        int size = getBatchSize();
+        if (lines != null) {
+            if (lines.isEmpty()) return Collections.emptyList();
+            if (size <= 0) size = lines.size();
+        }
+        final List<ISOMsg> messages = new ArrayList<>(Math.max(0, size));
+        String stan = null;
+        try {
+            for (int i = 0; i < size; ++i) {
+                builder.define(getFields());
+                if (lines != null) {
+                    builder.extend(lines.get(nextLine++ % lines.size()));
+                } else if (i == 0) {
+                    stan = builder.getMessage().getString(STAN_FIELD_NO);
+                } else if (stan != null) {
+                    builder.extend(Collections.singletonList(new MessageField(String.valueOf(STAN_FIELD_NO),
+                        incrementStan(stan, i))));
+                }
+                messages.add(builder.header(getHeader()).trailer(getTrailer()).getMessage());
+            }
+        } catch (ISOException e) {
+            log.error("Fields incorrect", e);
+        }
+        nextLine %= lines == null || lines.isEmpty() ? 1 : lines.size();
+        request = null; // the builder's message is part of the batch now
+        return messages;
+    }
+
+    // Adds the increment to a numeric STAN (keeping its length), or returns a non-numeric STAN unchanged
+    protected static String incrementStan(String stan, int increment) {
+        final String s = stan.trim();
+        if (s.isEmpty() || s.length() > 18 || !s.chars().allMatch(Character::isDigit)) return stan;
+
+        final long modulus = (long) Math.pow(10, s.length());
+        return String.format("%0"+s.length()+"d", (Long.parseLong(s) + increment) % modulus);
+    }
+
+    // Reads the batch file when first needed (or when its name changes), or returns null if there is none
+    protected List<List<MessageField>> getBatchLines() {
+        final String filename = getBatchFile();
+        if (filename == null || filename.trim().isEmpty()) return null;
+        if (filename.equals(batchFileName)) return batchLines;
+
+        batchFileName = filename;
+        batchLines = Collections.emptyList();
+        nextLine = 0;
+        final List<String> lines;
+        try {
+            File file = FileServer.getFileServer().getResolvedFile(filename.trim());
+            lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            log.error("Failed to read batch file '{}'", filename, e);
+            return batchLines;
+        }
+        lines.removeIf(String::isEmpty);
+        if (lines.isEmpty()) {
+            log.error("Empty batch file '{}'", filename);
+            return batchLines;
+        }
+        final List<List<MessageField>> parsed = new ArrayList<>(lines.size() - 1);
+        try { // quoted as for CSV Data Set, so values may contain commas
+            final String[] ids = CSVSaveService.csvSplitString(lines.remove(0), ',');
+            for (String line : lines) {
+                final String[] values = CSVSaveService.csvSplitString(line, ',');
+                List<MessageField> fields = new ArrayList<>(ids.length);
+                for (int i = 0; i < ids.length && i < values.length; ++i) {
+                    final String value = values[i].trim();
+                    if (!value.isEmpty()) { // keep the template's value
+                        fields.add(new MessageField(ids[i].trim(), value));
+                    }
+                }
+                parsed.add(fields);
+            }
+        } catch (IOException e) {
+            log.error("Invalid batch file '{}'", filename, e);
+            return batchLines;
+        }
+        batchLines = parsed;
+        log.debug("Read {} messages from batch file '{}'", batchLines.size(), filename);
+        return batchLines;
+    }
+
+    public int getBatchSize() { return getPropertyAsInt(BATCHSIZE); }
+    public void setBatchSize(int batchSize) { setProperty(new IntegerProperty(BATCHSIZE, batchSize)); }
+
+    public String getBatchFile() { return getPropertyAsString(BATCHFILE); }
+    public void setBatchFile(String batchFile) { setProperty(BATCHFILE, batchFile); }
+}
@@ -0,0 +1,33 @@
+package nz.co.breakpoint.jmeter.iso8583;
+
+import org.apache.jmeter.testbeans.gui.FileEditor;
+import org.apache.jmeter.testbeans.gui.IntegerPropertyEditor;
+import static nz.co.breakpoint.jmeter.iso8583.ISO8583BatchSampler.*;
+import java.beans.PropertyDescriptor;
+
+/** Describes the ISO8583BatchSampler GUI, i.e. the ISO8583Sampler GUI plus the batch definition.
+ */
+public class ISO8583BatchSamplerBeanInfo extends ISO8583SamplerBeanInfo {
+
+    public ISO8583BatchSamplerBeanInfo() {
+        super(ISO8583BatchSampler.class);
+
+        PropertyDescriptor p;
+
+        createPropertyGroup("Batch", new String[]{
+            BATCHSIZE, BATCHFILE,
+        });
+        p = property(BATCHSIZE);
+        p.setPropertyEditorClass(IntegerPropertyEditor.class);
+        p.setValue(NOT_UNDEFINED, Boolean.TRUE);
+        p.setValue(DEFAULT, 10);
+
+        p = property(BATCHFILE);
+        p.setPropertyEditorClass(FileEditor.class);
+        p.setValue(NOT_UNDEFINED, Boolean.TRUE);
+        p.setValue(DEFAULT, "");
+
+        // Batches are paced by the sampler executions, so no arrival rate per message:
+        property(ARRIVALRATE).setHidden(true);
+    }
+}
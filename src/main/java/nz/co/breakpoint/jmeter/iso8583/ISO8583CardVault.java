@@ -0,0 +1,217 @@
+package nz.co.breakpoint.jmeter.iso8583;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+import java.util.stream.IntStream;
+import org.apache.jmeter.config.ConfigTestElement;
+import org.apache.jmeter.engine.event.LoopIterationEvent;
+import org.apache.jmeter.engine.event.LoopIterationListener;
+import org.apache.jmeter.engine.util.NoThreadClone;
+import org.apache.jmeter.services.FileServer;
+import org.apache.jmeter.testbeans.TestBean;
+import org.apache.jmeter.testelement.TestStateListener;
+import org.apache.jmeter.threads.JMeterVariables;
+import org.jpos.iso.ISOUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/** Configuration element that provides card data from a CSV file, similar to JMeter's CSV Data Set,
+ * plus static cryptographic material per card that would otherwise be calculated for every transaction.
+ * <br>
+ * The file is read and all cards' material derived (in parallel) at test start.
+ * Each iteration of each thread then gets the next card (round-robin, shared by all threads) as JMeter variables:
+ * the file's columns plus PINBLOCK (clear, or encrypted if a PIN key is given) and CVV (if a CVK is given).
+ * <br>
+ * If an IMKAC is given, the cards' ICC Master Keys are derived as well, so the Crypto PreProcessor's ARQC calculation
+ * only has to derive the session key.
+ */
+public class ISO8583CardVault extends ConfigTestElement
+        implements ISO8583TestElement, TestBean, Serializable, TestStateListener, LoopIterationListener, NoThreadClone {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final Logger log = LoggerFactory.getLogger(ISO8583CardVault.class);
+
+    public static final String
+        FILENAME = "filename",
+        VARIABLENAMES = "variableNames",
+        DELIMITER = "delimiter",
+        PANVARIABLE = "panVariable",
+        PINVARIABLE = "pinVariable",
+        PINBLOCKFORMAT = "pinBlockFormat",
+        PINKEY = "pinKey",
+        EXPVARIABLE = "expVariable",
+        SERVICECODE = "serviceCode",
+        CVK = "cvk",
+        PSNVARIABLE = "psnVariable",
+        IMKAC = "imkac";
+
+    public static final String PINBLOCK_VARIABLE = "PINBLOCK", CVV_VARIABLE = "CVV";
+
+    protected transient String[] names;
+    protected transient volatile String[][] cards;
+    protected transient AtomicLong next;
+
+    @Override
+    public void testStarted() {
+        next = new AtomicLong();
+        cards = null;
+        final String filename = getFilename();
+        if (filename == null || filename.isEmpty()) {
+            log.error("No card file defined");
+            return;
+        }
+        final List<String> lines;
+        try {
+            File file = FileServer.getFileServer().getResolvedFile(filename);
+            lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            log.error("Failed to read card file '{}'", filename, e);
+            return;
+        }
+        lines.removeIf(String::isEmpty);
+        final String delimiter = Pattern.quote(getDelimiter());
+        final String variableNames = getVariableNames();
+        final String[] columns = variableNames.isEmpty() ? (lines.isEmpty() ? "" : lines.remove(0)).split(delimiter)
+            : variableNames.split(",");
+        for (int i = 0; i < columns.length; ++i) {
+            columns[i] = columns[i].trim();
+        }
+        names = Arrays.copyOf(columns, columns.length + 2);
+        names[columns.length] = PINBLOCK_VARIABLE;
+        names[columns.length + 1] = CVV_VARIABLE;
+
+        long start = System.currentTimeMillis();
+        cards = IntStream.range(0, lines.size()).parallel()
+            .mapToObj(i -> deriveCard(columns, lines.get(i).split(delimiter, -1)))
+            .toArray(String[][]::new);
+        log.info("Prepared {} cards in {} ms", cards.length, System.currentTimeMillis() - start);
+    }
+
+    // Returns the card's column values followed by the derived values
+    protected String[] deriveCard(String[] columns, String[] values) {
+        final Map<String, String> card = new HashMap<>();
+        for (int i = 0; i < columns.length; ++i) {
+            card.put(columns[i], i < values.length ? values[i] : "");
+        }
+        String[] result = Arrays.copyOf(values, columns.length + 2);
+        result[columns.length] = derivePINBlock(card);
+        result[columns.length + 1] = deriveCVV(card);
+        deriveICCMasterKeys(card);
+        return result;
+    }
+
+    protected String derivePINBlock(Map<String, String> card) {
+        final String pin = card.get(getPinVariable()), pan = card.get(getPanVariable()), pinKey = getPinKey();
+        if (pin == null || pin.isEmpty() || pan == null || pan.isEmpty()) return null;
+
+        final SecurityModule securityModule = SecurityModule.getInstance();
+        String pinBlock = securityModule.calculatePINBlock(pin, getPinBlockFormat(), pan);
+        if (pinBlock.isEmpty() || pinKey.isEmpty()) return pinBlock;
+
+        if (pinKey.length() != 16 && pinKey.length() != 32 && pinKey.length() != 48) {
+            log.error("Incorrect PIN key length '{}' (expecting 16, 32 or 48 hex digits)", pinKey);
+            return null;
+        }
+        try {
+            return securityModule.encryptPINBlock(ISOUtil.hex2byte(pinBlock), securityModule.formDESKey(pinKey));
+        } catch (Exception e) {
+            log.error("PIN Block encryption failed {}", e.toString(), e);
+        }
+        return null;
+    }
+
+    protected String deriveCVV(Map<String, String> card) {
+        final String cvk = getCvk(), pan = card.get(getPanVariable());
+        String exp = card.get(getExpVariable());
+        if (cvk.isEmpty() || pan == null || pan.isEmpty() || exp == null) return null;
+
+        if (exp.matches("\\d\\d/\\d\\d")) { // MM/yy => yyMM
+            exp = exp.substring(3) + exp.substring(0, 2);
+        }
+        String cvv = SecurityModule.getInstance().calculateCVV(pan, cvk, exp, getServiceCode());
+        return cvv.isEmpty() ? null : cvv;
+    }
+
+    protected void deriveICCMasterKeys(Map<String, String> card) {
+        final String imkac = getImkac(), pan = card.get(getPanVariable()), psn = card.get(getPsnVariable());
+        if (imkac.length() != 32 || pan == null || pan.isEmpty()) return;
+
+        SecurityModule.getInstance().prepareARQC(imkac, pan, psn == null || psn.isEmpty() ? "00" : psn);
+    }
+
+    @Override
+    public void iterationStart(LoopIterationEvent event) {
+        final String[][] cards = this.cards;
+        if (cards == null || cards.length == 0) return;
+
+        final String[] card = cards[(int) (next.getAndIncrement() % cards.length)];
+        final JMeterVariables vars = getThreadContext().getVariables();
+        for (int i = 0; i < names.length; ++i) { // missing values must not leave the previous card's behind
+            if (card[i] != null) {
+                vars.put(names[i], card[i]);
+            } else {
+                vars.remove(names[i]);
+            }
+        }
+    }
+
+    public int getCardCount() {
+        final String[][] cards = this.cards;
+        return cards == null ? 0 : cards.length;
+    }
+
+    @Override
+    public void testEnded() {
+        cards = null;
+    }
+
+    @Override
+    public void testStarted(String s) { testStarted(); }
+
+    @Override
+    public void testEnded(String s) { testEnded(); }
+
+    // Accessors for mapping to TestBean GUI elements...
+    public String getFilename() { return getPropertyAsString(FILENAME); }
+    public void setFilename(String filename) { setProperty(FILENAME, filename); }
+
+    public String getVariableNames() { return getPropertyAsString(VARIABLENAMES); }
+    public void setVariableNames(String variableNames) { setProperty(VARIABLENAMES, variableNames); }
+
+    public String getDelimiter() { return getPropertyAsString(DELIMITER, ","); }
+    public void setDelimiter(String delimiter) { setProperty(DELIMITER, delimiter); }
+
+    public String getPanVariable() { return getPropertyAsString(PANVARIABLE, "PAN"); }
+    public void setPanVariable(String panVariable) { setProperty(PANVARIABLE, panVariable); }
+
+    public String getPinVariable() { return getPropertyAsString(PINVARIABLE, "PIN"); }
+    public void setPinVariable(String pinVariable) { setProperty(PINVARIABLE, pinVariable); }
+
+    public String getPinBlockFormat() { return getPropertyAsString(PINBLOCKFORMAT, "1"); }
+    public void setPinBlockFormat(String pinBlockFormat) { setProperty(PINBLOCKFORMAT, pinBlockFormat); }
+
+    public String getPinKey() { return getPropertyAsString(PINKEY); }
+    public void setPinKey(String pinKey) { setProperty(PINKEY, pinKey); }
+
+    public String getExpVariable() { return getPropertyAsString(EXPVARIABLE, "EXP"); }
+    public void setExpVariable(String expVariable) { setProperty(EXPVARIABLE, expVariable); }
+
+    public String getServiceCode() { return getPropertyAsString(SERVICECODE, "101"); }
+    public void setServiceCode(String serviceCode) { setProperty(SERVICECODE, serviceCode); }
+
+    public String getCvk() { return getPropertyAsString(CVK); }
+    public void setCvk(String cvk) { setProperty(CVK, cvk); }
+
+    public String getPsnVariable() { return getPropertyAsString(PSNVARIABLE, "PSN"); }
+    public void setPsnVariable(String psnVariable) { setProperty(PSNVARIABLE, psnVariable); }
+
+    public String getImkac() { return getPropertyAsString(IMKAC); }
+    public void setImkac(String imkac) { setProperty(IMKAC, imkac); }
+}
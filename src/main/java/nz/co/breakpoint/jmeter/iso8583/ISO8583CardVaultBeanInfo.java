@@ -0,0 +1,80 @@
+package nz.co.breakpoint.jmeter.iso8583;
+
+import java.beans.PropertyDescriptor;
+import org.apache.jmeter.testbeans.gui.FileEditor;
+import static nz.co.breakpoint.jmeter.iso8583.ISO8583CardVault.*;
+
+/** Describes the ISO8583CardVault GUI.
+ */
+public class ISO8583CardVaultBeanInfo extends ISO8583TestElementBeanInfo {
+    public ISO8583CardVaultBeanInfo() {
+        super(ISO8583CardVault.class);
+
+        PropertyDescriptor p;
+
+        createPropertyGroup("Cards", new String[]{
+            FILENAME, VARIABLENAMES, DELIMITER, PANVARIABLE,
+        });
+
+        p = property(FILENAME);
+        p.setValue(NOT_UNDEFINED, Boolean.TRUE);
+        p.setValue(DEFAULT, "");
+        p.setPropertyEditorClass(FileEditor.class);
+
+        p = property(VARIABLENAMES);
+        p.setValue(NOT_UNDEFINED, Boolean.TRUE);
+        p.setValue(DEFAULT, "");
+
+        p = property(DELIMITER);
+        p.setValue(NOT_UNDEFINED, Boolean.TRUE);
+        p.setValue(DEFAULT, ",");
+
+        p = property(PANVARIABLE);
+        p.setValue(NOT_UNDEFINED, Boolean.TRUE);
+        p.setValue(DEFAULT, "PAN");
+
+        createPropertyGroup("PIN", new String[]{
+            PINVARIABLE, PINBLOCKFORMAT, PINKEY,
+        });
+
+        p = property(PINVARIABLE);
+        p.setValue(NOT_UNDEFINED, Boolean.TRUE);
+        p.setValue(DEFAULT, "PIN");
+
+        p = property(PINBLOCKFORMAT);
+        p.setValue(NOT_UNDEFINED, Boolean.TRUE);
+        p.setValue(DEFAULT, "1");
+
+        p = property(PINKEY);
+        p.setValue(NOT_UNDEFINED, Boolean.TRUE);
+        p.setValue(DEFAULT, "");
+
+        createPropertyGroup("CVV", new String[]{
+            CVK, EXPVARIABLE, SERVICECODE,
+        });
+
+        p = property(CVK);
+        p.setValue(NOT_UNDEFINED, Boolean.TRUE);
+        p.setValue(DEFAULT, "");
+
+        p = property(EXPVARIABLE);
+        p.setValue(NOT_UNDEFINED, Boolean.TRUE);
+        p.setValue(DEFAULT, "EXP");
+
+        p = property(SERVICECODE);
+        p.setValue(NOT_UNDEFINED, Boolean.TRUE);
+        p.setValue(DEFAULT, "101");
+
+        createPropertyGroup("ARQC", new String[]{
+            IMKAC, PSNVARIABLE,
+        });
+
+        p = property(IMKAC);
+        p.setValue(NOT_UNDEFINED, Boolean.TRUE);
+        p.setValue(DEFAULT, "");
+
+        p = property(PSNVARIABLE);
+        p.setValue(NOT_UNDEFINED, Boolean.TRUE);
+        p.setValue(DEFAULT, "PSN");
+    }
+}
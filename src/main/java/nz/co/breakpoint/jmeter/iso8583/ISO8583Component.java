@@ -23,6 +23,14 @@ public class ISO8583Component extends ConfigTestElement
 
     public static final String FIELDS = "fields";
 
+    /* Fields by id (the last definition of an id taking precedence), for quick lookups.
+     * The fields property remains the master copy (for persistence and running version semantics), so the index
+     * gets rebuilt whenever that changes other than via this class (e.g. when temporary fields are removed).
+     */
+    protected transient Map<String, MessageField> index;
+    protected transient Object indexedCollection;
+    protected transient int indexedSize;
+
     public ISO8583Component() {
         setProperty(new CollectionProperty(FIELDS, new ArrayList<>()));
     }
@@ -30,31 +38,47 @@ public class ISO8583Component extends ConfigTestElement
     public void merge(ISO8583Component other) {
         if (other != null) {
             log.debug("Merging {}", other.getFieldsAsProperty());
-            other.getFields().forEach(f -> {
-                if (!hasField(f.getName())) addField(f);
-            });
+            final Map<String, MessageField> fields = getIndex();
+            for (JMeterProperty jMeterProperty : other.getFieldsAsProperty()) {
+                final MessageField f = (MessageField) jMeterProperty.getObjectValue();
+                if (!fields.containsKey(f.getName())) addField(f);
+            }
         }
     }
 
     protected boolean hasField(String id) {
-        for (JMeterProperty jMeterProperty : getFieldsAsProperty()) {
-            MessageField own = (MessageField) jMeterProperty.getObjectValue();
-            if (own.getName().equals(id)) return true;
-        }
-        return false;
+        return getIndex().containsKey(id);
     }
 
     protected CollectionProperty getFieldsAsProperty() {
         return (CollectionProperty) getProperty(FIELDS);
     }
 
+    protected Map<String, MessageField> getIndex() {
+        final CollectionProperty fields = getFieldsAsProperty();
+        if (index == null || indexedCollection != fields.getObjectValue() || indexedSize != fields.size()) {
+            Map<String, MessageField> newIndex = new HashMap<>();
+            for (JMeterProperty jMeterProperty : fields) {
+                final MessageField field = (MessageField) jMeterProperty.getObjectValue();
+                newIndex.put(field.getName(), field);
+            }
+            index = newIndex;
+            indexedCollection = fields.getObjectValue();
+            indexedSize = fields.size();
+        }
+        return index;
+    }
+
     protected void addField(MessageField field) {
         log.debug("Add field {}", field);
+        final Map<String, MessageField> fields = getIndex();
         JMeterProperty prop = AbstractProperty.createProperty(field);
         if (isRunningVersion()) {
             this.setTemporary(prop); // so fields added at runtime are removed automatically
         }
         getFieldsAsProperty().addProperty(prop);
+        fields.put(field.getName(), field);
+        ++indexedSize;
     }
 
     protected void addFields(Collection<MessageField> fields) {
@@ -62,7 +86,12 @@ public class ISO8583Component extends ConfigTestElement
     }
 
     protected void removeField(String id) {
-        getFieldsAsProperty().remove(id);
+        final Map<String, MessageField> fields = getIndex();
+        if (fields.remove(id) != null) {
+            final CollectionProperty property = getFieldsAsProperty();
+            property.remove(id);
+            indexedSize = property.size();
+        }
     }
 
     // Need Collection getter/setter for TestBean GUI
@@ -74,5 +103,13 @@ public class ISO8583Component extends ConfigTestElement
 
     public void setFields(Collection<MessageField> fields) {
         getFieldsAsProperty().setCollection(fields);
+        index = null;
+    }
+
+    // Recovery may restore fields without changing their number, so the index can't be relied on any more
+    @Override
+    public void recoverRunningVersion() {
+        super.recoverRunningVersion();
+        index = null;
     }
 }
@@ -16,11 +16,13 @@ import org.jdom2.Element;
 import org.jdom2.output.XMLOutputter;
 import org.jpos.iso.*;
 import org.jpos.iso.channel.*;
-import org.jpos.iso.packager.GenericPackager;
 import org.jpos.q2.Q2;
 import org.jpos.q2.QBeanSupport;
 import org.jpos.q2.QFactory;
 import org.jpos.q2.iso.*;
+import org.jpos.space.LocalSpace;
+import org.jpos.space.SpaceFactory;
+import org.jpos.space.SpaceListener;
 import org.jpos.util.NameRegistrar;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -30,6 +32,8 @@ import org.slf4j.LoggerFactory;
  *   <li>ChannelAdaptor, Channel and QMUX</li>
  *   <li>QServer, Channel and QMUX</li>
  * </ul>
+ * With multiple persistent client connections, there is a ChannelAdaptor, Channel and QMUX per connection,
+ * and a MUXPool in front of the QMUXes.
  * While normally those would be configured by placing corresponding XML files into a <i>deploy</i> folder,
  * here it is done dynamically via transforming configuration properties from the JMeter Test Plan
  * into in-memory deployment descriptors (JDOM Elements).
@@ -57,17 +61,22 @@ public class ISO8583Config extends ConfigTestElement
         HOST = "host",
         PORT = "port",
         REUSECONNECTION = "reuseConnection",
+        CONNECTIONS = "connections",
         MAXCONNECTIONS = "maxConnections",
         CONNECTIONSELECTION = "connectionSelection",
         CHANNELCONFIG = "channelConfig",
         REQUESTLISTENER = "requestListener",
+        MOCKRESPONSECODES = "mockResponseCodes",
+        MOCKMTIMAPPING = "mockMtiMapping",
+        MOCKECHOFIELDS = "mockEchoFields",
+        MOCKLATENCY = "mockLatency",
         KEYSTORE = "keystore",
         STOREPASSWORD = "storePassword",
         KEYPASSWORD = "keyPassword",
         MTIMAPPING = "mtiMapping",
         MUXKEYCONFIG = "muxKeyConfig";
 
-    // Lookup map of Channel classes that come with jPOS (for GUI dropdown):
+    // Lookup map of Channel classes that come with jPOS or this plugin (for GUI dropdown):
     static final Map<String, String> channelClasses = new HashMap<>();
     static {
         for (Class<? extends BaseChannel> clazz :
@@ -75,7 +84,8 @@ public class ISO8583Config extends ConfigTestElement
                 ASCIIChannel.class, AmexChannel.class, BASE24Channel.class, BASE24TCPChannel.class, BCDChannel.class,
                 CSChannel.class, GICCChannel.class, GZIPChannel.class, HEXChannel.class, LogChannel.class,
                 NACChannel.class, NCCChannel.class, PADChannel.class, PostChannel.class, RawChannel.class,
-                RBPChannel.class, TelnetXMLChannel.class, VAPChannel.class, X25Channel.class, XMLChannel.class
+                RBPChannel.class, TelnetXMLChannel.class, VAPChannel.class, X25Channel.class, XMLChannel.class,
+                DirectBufferChannel.class
         }) {
             channelClasses.put(clazz.getSimpleName(), clazz.getName());
         }
@@ -84,7 +94,8 @@ public class ISO8583Config extends ConfigTestElement
     public enum ConnectionSelection {
         LAST, // Last connected https://github.com/jpos/jPOS/blob/v2_1_10/jpos/src/main/java/org/jpos/q2/iso/QServer.java#L350
         RR, // Round-robin https://github.com/jpos/jPOS/blob/v2_1_10/jpos/src/main/java/org/jpos/q2/iso/QServer.java#L385
-        ALL; // All connected https://github.com/jpos/jPOS/blob/v2_1_10/jpos/src/main/java/org/jpos/q2/iso/QServer.java#L365
+        ALL, // All connected https://github.com/jpos/jPOS/blob/v2_1_10/jpos/src/main/java/org/jpos/q2/iso/QServer.java#L365
+        LEAST; // Least outstanding requests (see LeastOutstandingStrategy)
 
         // Tags must match ResourceBundle and appear in script files:
         public static ConnectionSelection fromTag(String connectionSelection) {
@@ -117,16 +128,15 @@ public class ISO8583Config extends ConfigTestElement
             logger.addListener(new Slf4jLogListener());
     }
 
-    // Instantiate packager from config file
+    // Get packager for config file (shared between all samplers and threads, see PackagerRegistry)
     public ISOPackager createPackager() {
         String fileName = getPackager();
         if (fileName == null || fileName.isEmpty()) {
             log.warn("Packager config undefined");
             return null;
         }
-        log.debug("Creating packager from '{}'", fileName);
         try {
-            return new GenericPackager(fileName);
+            return PackagerRegistry.getPackager(fileName);
         } catch (ISOException e) {
             log.error("Packager configuration error", e.getNested());
             return null;
@@ -156,7 +166,7 @@ public class ISO8583Config extends ConfigTestElement
         Element channelDescriptor = new Element("channel")
             .setAttribute("name", name)
             .setAttribute("class", channelClass)
-            .setAttribute("packager", GenericPackager.class.getName())
+            .setAttribute("packager", CachingGenericPackager.class.getName())
             .setAttribute("header", getHeader())
             .setAttribute("logger", Q2_LOGGER)
             .addContent(new Element("property")
@@ -214,7 +224,26 @@ public class ISO8583Config extends ConfigTestElement
         return descriptor;
     }
 
+    // The mock responder (if any) comes first, so the script still gets requests that it does not respond to
     protected Element addRequestListener(Element descriptor) {
+        final String mockResponseCodes = getMockResponseCodes();
+        if (mockResponseCodes != null && !mockResponseCodes.isEmpty()) {
+            descriptor.addContent(new Element("request-listener")
+                .setAttribute("class", MockResponder.class.getName())
+                .setAttribute("logger", Q2_LOGGER)
+                .addContent(new Element("property")
+                    .setAttribute("name", "response-codes")
+                    .setAttribute("value", mockResponseCodes))
+                .addContent(new Element("property")
+                    .setAttribute("name", "mti-mapping")
+                    .setAttribute("value", getMockMtiMapping()))
+                .addContent(new Element("property")
+                    .setAttribute("name", "echo-fields")
+                    .setAttribute("value", getMockEchoFields()))
+                .addContent(new Element("property")
+                    .setAttribute("name", "latency")
+                    .setAttribute("value", getMockLatency().isEmpty() ? "0" : getMockLatency())));
+        }
         final String requestListener = getRequestListener();
         if (requestListener != null && !requestListener.isEmpty()) {
             descriptor.addContent(new Element("request-listener")
@@ -222,18 +251,25 @@ public class ISO8583Config extends ConfigTestElement
                 .setAttribute("logger", Q2_LOGGER)
                 .addContent(new Element("property")
                     .setAttribute("name", "source")
-                    .setAttribute("value", requestListener)));
+                    .setAttribute("value", requestListener))
+                .addContent(new Element("property")
+                    .setAttribute("name", "threads")
+                    .setAttribute("value", JMeterUtils.getPropDefault(REQUEST_LISTENER_THREADS, "0"))));
         }
         return descriptor;
     }
 
     protected Element getChannelAdaptorDescriptor(String key) {
+        return getChannelAdaptorDescriptor(getChannelAdaptorName(), key+"-send", key+"-receive");
+    }
+
+    protected Element getChannelAdaptorDescriptor(String name, String in, String out) {
         // https://github.com/jpos/jPOS/blob/v2_1_10/doc/src/asciidoc/ch08/channel_adaptor.adoc
         Element descriptor = new Element("channel-adaptor")
-            .setAttribute("name", getChannelAdaptorName())
+            .setAttribute("name", name)
             .setAttribute("logger", Q2_LOGGER)
-            .addContent(new Element("in").addContent(key+"-send"))
-            .addContent(new Element("out").addContent(key+"-receive"))
+            .addContent(new Element("in").addContent(in))
+            .addContent(new Element("out").addContent(out))
             .addContent(new Element("reconnect-delay").addContent(
                     JMeterUtils.getPropDefault(CHANNEL_RECONNECT_DELAY, "10000")))
             .addContent(new Element("wait-for-workers-on-stop").addContent("yes"));
@@ -245,7 +281,8 @@ public class ISO8583Config extends ConfigTestElement
         Element descriptor = new Element("qbean")
                 .setAttribute("name", getChannelAdaptorName())
                 .setAttribute("logger", Q2_LOGGER)
-                .setAttribute("class", OneShotChannelAdaptorMK2.class.getName())
+                .setAttribute("class", isSelectorOneShot() ? SelectorOneShotChannelAdaptor.class.getName()
+                    : OneShotChannelAdaptorMK2.class.getName())
                 .addContent(new Element("in").addContent(key+"-send"))
                 .addContent(new Element("out").addContent(key+"-receive"));
 
@@ -256,7 +293,15 @@ public class ISO8583Config extends ConfigTestElement
         return descriptor;
     }
 
-    // Registers ChannelAdaptor <key>-channel and BaseChannel channel.<key>-channel
+    // DirectBufferChannel's framing allows all one-shot connections to be handled on a single thread (except via SSL)
+    protected boolean isSelectorOneShot() {
+        final String keystore = getKeystore();
+        return DirectBufferChannel.class.getName().equals(getFullChannelClassName())
+            && (keystore == null || keystore.isEmpty());
+    }
+
+    // Registers ChannelAdaptor <key>-channel and BaseChannel channel.<key>-channel,
+    // or ChannelAdaptors <key>-channel-<i> with Space queues <key>-send-<i> and <key>-receive-<i> for multiple connections
     protected QBeanSupport startChannelAdaptor() {
         final String key = getPropertyAsString(CONFIGKEY);
         Element channelDescriptor = getChannelDescriptor(key);
@@ -272,6 +317,15 @@ public class ISO8583Config extends ConfigTestElement
             log.error("Port undefined, cannot start ChannelAdaptor");
             return null;
         }
+        if (isPooled()) {
+            QBeanSupport adaptor = null;
+            for (int i = 0; i < getConnectionCount(); ++i) {
+                Element descriptor = getChannelAdaptorDescriptor(getChannelAdaptorName(i), key+"-send-"+i, key+"-receive-"+i)
+                    .addContent(addSSLConfig(getChannelDescriptor(key+"-"+i)));
+                adaptor = deployAndStart(descriptor);
+            }
+            return adaptor;
+        }
         Element descriptor = isReuseConnection() ? getChannelAdaptorDescriptor(key)
                 : getOneShotChannelAdaptorDescriptor(key);
         descriptor.addContent(channelDescriptor);
@@ -293,6 +347,7 @@ public class ISO8583Config extends ConfigTestElement
         // Build QBean deployment descriptor in memory
         // https://github.com/jpos/jPOS/blob/v2_1_10/doc/src/asciidoc/ch08/qserver.adoc
         Element descriptor = new Element("qserver")
+            .setAttribute("class", CountingQServer.class.getName())
             .setAttribute("name", getQServerName())
             .setAttribute("logger", Q2_LOGGER)
             .addContent(channelDescriptor)
@@ -302,33 +357,66 @@ public class ISO8583Config extends ConfigTestElement
                 .addContent(getPort()))
             .addContent(new Element("in").addContent(key+"-send"))
             .addContent(new Element("out").addContent(key+"-receive"))
-            .addContent(new Element("ready").addContent(key+".ready"));
+            .addContent(new Element("ready").addContent(key+".ready"))
+            .addContent(new Element("outstanding-timeout")
+                .addContent(JMeterUtils.getPropDefault(OUTSTANDING_TIMEOUT, "60000")));
 
-        final String connectionSelection = getConnectionSelection();
-        if (connectionSelection != null && !connectionSelection.isEmpty()) {
-            descriptor.addContent(new Element("send-request")
-                .addContent(ConnectionSelection.fromTag(connectionSelection).toString()));
+        final ConnectionSelection connectionSelection = getConnectionSelectionValue();
+        if (connectionSelection != null) {
+            descriptor.addContent(new Element("send-request").addContent(connectionSelection.toString()));
         }
         addSSLConfig(descriptor);
 
         return deployAndStart(descriptor);
     }
 
-    // Registers QMUX mux.<key>-mux and connects with <key>-receive and <key>-send Space queues
+    // Registers QMUX mux.<key>-mux and connects with <key>-receive and <key>-send Space queues,
+    // or QMUXes mux.<key>-mux-<i> for multiple connections, behind MUXPool mux.<key>-mux.
     // Would usually be called *after* startChannelAdaptor or startQServer.
     protected QBeanSupport startMux() {
         final String key = getPropertyAsString(CONFIGKEY);
 
+        if (!isPooled()) {
+            return deployAndStart(getMuxDescriptor(getMuxName(), key+"-receive", key+"-send", getReadyKeys()[0]));
+        }
+        StringBuilder muxNames = new StringBuilder();
+        for (int i = 0; i < getConnectionCount(); ++i) {
+            deployAndStart(getMuxDescriptor(getMuxName(i), key+"-receive-"+i, key+"-send-"+i,
+                getReadyKeys()[i]) // the ChannelAdaptor's ready indicator, so the pool skips disconnected ones
+                .setAttribute("class", CountingQMUX.class.getName()));
+            muxNames.append(getMuxName(i)).append(' ');
+        }
+        // https://github.com/jpos/jPOS/blob/v2_1_10/doc/src/asciidoc/ch08/mux_pool.adoc
+        Element descriptor = new Element("mux")
+            .setAttribute("class", MUXPool.class.getName())
+            .setAttribute("name", getMuxName())
+            .setAttribute("logger", Q2_LOGGER)
+            .addContent(new Element("muxes").addContent(muxNames.toString().trim()))
+            .addContent(new Element("strategy").addContent("round-robin"));
+
+        final ConnectionSelection connectionSelection = getConnectionSelectionValue();
+        if (connectionSelection == ConnectionSelection.LEAST) {
+            descriptor.addContent(new Element("strategy-handler")
+                .setAttribute("class", LeastOutstandingStrategy.class.getName()));
+        } else if (connectionSelection != null && connectionSelection != ConnectionSelection.RR) {
+            log.debug("Connection selection {} not applicable to multiple client connections, using round-robin",
+                connectionSelection);
+        }
+        return deployAndStart(descriptor);
+    }
+
+    protected Element getMuxDescriptor(String name, String in, String out, String ready) {
         // Build QBean deployment descriptor in memory
         // (note the in/out queues need to be cross-wired):
         // https://github.com/jpos/jPOS/blob/v2_1_10/doc/src/asciidoc/ch08/qmux.adoc
+        final String key = getPropertyAsString(CONFIGKEY);
         Element descriptor = new Element("qmux")
-            .setAttribute("name", getMuxName())
+            .setAttribute("name", name)
             .setAttribute("logger", Q2_LOGGER)
-            .addContent(new Element("in").addContent(key+"-receive"))
-            .addContent(new Element("out").addContent(key+"-send"))
+            .addContent(new Element("in").addContent(in))
+            .addContent(new Element("out").addContent(out))
             .addContent(new Element("unhandled").addContent(key+"-unhandled"))
-            .addContent(new Element("ready").addContent(key+".ready"));
+            .addContent(new Element("ready").addContent(ready));
 
         final String mtiMapping = getMtiMapping();
         if (mtiMapping != null && !mtiMapping.isEmpty()) {
@@ -343,7 +431,7 @@ public class ISO8583Config extends ConfigTestElement
         });
         addRequestListener(descriptor);
 
-        return deployAndStart(descriptor);
+        return descriptor;
     }
 
     // Mimic Q2 deployment of a descriptor file, followed by starting the QBean,
@@ -366,6 +454,12 @@ public class ISO8583Config extends ConfigTestElement
     }
 
     protected void stopChannelAdaptor() {
+        if (isPooled()) {
+            for (int i = 0; i < getConnectionCount(); ++i) {
+                stopAndUndeploy(NameRegistrar.getIfExists(getChannelAdaptorName(i)));
+            }
+            return;
+        }
         stopAndUndeploy(NameRegistrar.getIfExists(getChannelAdaptorName()));
     }
 
@@ -375,8 +469,13 @@ public class ISO8583Config extends ConfigTestElement
 
     protected void stopMux() {
         try {
-            stopAndUndeploy(getMux());
+            stopAndUndeploy((QBeanSupport) getMux());
         } catch (NameRegistrar.NotFoundException ignoreBecauseItWasntRunning) {}
+        if (isPooled()) {
+            for (int i = 0; i < getConnectionCount(); ++i) {
+                stopAndUndeploy(NameRegistrar.getIfExists("mux."+getMuxName(i)));
+            }
+        }
     }
 
     protected void stopAndUndeploy(QBeanSupport qbean) {
@@ -415,19 +514,117 @@ public class ISO8583Config extends ConfigTestElement
         }
     }
 
-    public QMUX getMux() throws NameRegistrar.NotFoundException { return (QMUX)QMUX.getMUX(getMuxName()); }
+    // Either a QMUX or a MUXPool (for multiple connections)
+    public MUX getMux() throws NameRegistrar.NotFoundException { return QMUX.getMUX(getMuxName()); }
+
+    // For scripts that need QMUX methods: the QMUX of a single connection, or null for multiple connections
+    public QMUX getQMux() throws NameRegistrar.NotFoundException {
+        final MUX mux = getMux();
+        return mux instanceof QMUX ? (QMUX) mux : null;
+    }
 
     public String getMuxName() { return getConfigKey()+"-mux"; }
 
+    public String getMuxName(int connection) { return getMuxName()+"-"+connection; }
+
     public String getQServerName() { return getConfigKey()+"-server"; }
 
     public String getChannelAdaptorName() { return getConfigKey()+"-channel"; }
 
+    public String getChannelAdaptorName(int connection) { return getChannelAdaptorName()+"-"+connection; }
+
     protected boolean isServer() { return getHost() == null || getHost().isEmpty(); }
 
+    // Multiple connections only apply to persistent client connections
+    protected boolean isPooled() { return !isServer() && isReuseConnection() && getConnectionCount() > 1; }
+
+    protected int getConnectionCount() {
+        final String connections = getConnections();
+        if (connections == null || connections.isEmpty()) return 1;
+        try {
+            return Integer.parseInt(connections.trim());
+        } catch (NumberFormatException e) {
+            log.error("Invalid number of connections '{}'", connections);
+            return 1;
+        }
+    }
+
+    protected ConnectionSelection getConnectionSelectionValue() {
+        final String connectionSelection = getConnectionSelection();
+        return connectionSelection == null || connectionSelection.isEmpty() ? null
+            : ConnectionSelection.fromTag(connectionSelection);
+    }
+
+    /* Space keys that indicate connections are ready:
+     * The ChannelAdaptors' (per client connection) or the CountingQServer's (whose entry is the number of connections).
+     */
+    protected String[] getReadyKeys() {
+        if (isServer()) return new String[]{getConfigKey()+".ready"};
+        if (!isPooled()) return new String[]{getChannelAdaptorName()+".ready"};
+
+        String[] keys = new String[getConnectionCount()];
+        for (int i = 0; i < keys.length; ++i) {
+            keys[i] = getChannelAdaptorName(i)+".ready";
+        }
+        return keys;
+    }
+
+    protected static int countReady(LocalSpace<String, Object> sp, String[] keys) {
+        int ready = 0;
+        for (String key : keys) {
+            Object entry = sp.rdp(key);
+            if (entry != null) ready += entry instanceof Integer ? (Integer) entry : 1;
+        }
+        return ready;
+    }
+
+    /** Waits until the given number of connections are ready, i.e. until the ready Space entries are present,
+     * but no longer than the timeout.
+     * @return whether the connections are ready
+     */
+    protected boolean awaitReady(int minConnections, long timeout) {
+        final String[] keys = getReadyKeys();
+        final LocalSpace<String, Object> sp = (LocalSpace<String, Object>) SpaceFactory.getSpace();
+        final Object lock = new Object();
+        final SpaceListener<String, Object> listener = (key, value) -> {
+            synchronized (lock) { lock.notifyAll(); }
+        };
+        for (String key : keys) {
+            sp.addListener(key, listener);
+        }
+        final long abortTime = System.currentTimeMillis() + timeout;
+        int ready;
+        try {
+            synchronized (lock) {
+                long waitTime = timeout;
+                while ((ready = countReady(sp, keys)) < minConnections && waitTime > 0) {
+                    log.info("Waiting up to {} seconds for connections to be ready ({} of {})",
+                        waitTime/1000, ready, minConnections);
+                    lock.wait(waitTime);
+                    waitTime = abortTime - System.currentTimeMillis();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            ready = countReady(sp, keys);
+        } finally {
+            for (String key : keys) {
+                sp.removeListener(key, listener);
+            }
+        }
+        if (ready == 0) {
+            log.error("No connection established");
+        } else if (ready < minConnections) {
+            log.warn("Only {} of {} connections established", ready, minConnections);
+        }
+        return ready >= minConnections;
+    }
+
     @Override
     public void testStarted() {
         startQ2();
+        ISO8583Metrics.start();
+        ISO8583Sampler.ResultDetail.reload();
 
         if (getConfigKey() == null || getConfigKey().isEmpty()) {
             // Create a distinct key for naming this element's QBeans.
@@ -439,29 +636,15 @@ public class ISO8583Config extends ConfigTestElement
             startQServer();
             startMux();
 
-            ISOServer server;
-            try {
-                server = ISOServer.getServer(getQServerName());
-            } catch (NameRegistrar.NotFoundException e) {
-                log.error("ISOServer not found", e);
-                return;
-            }
-
-            long waitTime = JMeterUtils.getPropDefault(INCOMING_CONNECTION_TIMEOUT, 60000);
-            long abortTime = System.currentTimeMillis()+waitTime;
-            boolean connected = false;
-            while (!connected && waitTime > 0) {
-                log.info("Waiting {} seconds for incoming client connection", waitTime/1000);
-                ISOUtil.sleep(1000);
-                waitTime = abortTime - System.currentTimeMillis();
-                connected = (server.getActiveConnections() != 0);
-            }
-            if (!connected) {
-                log.error("No incoming connection established");
-            }
+            // In server mode, the number of connections is the minimum number of incoming connections to wait for:
+            awaitReady(Math.max(1, getConnectionCount()), JMeterUtils.getPropDefault(INCOMING_CONNECTION_TIMEOUT, 60000));
         } else {
             startChannelAdaptor();
             startMux();
+
+            final int connections = getReadyKeys().length;
+            awaitReady(Math.min(connections, JMeterUtils.getPropDefault(MIN_READY_CONNECTIONS, connections)),
+                JMeterUtils.getPropDefault(OUTGOING_CONNECTION_TIMEOUT, 10000));
         }
     }
 
@@ -476,6 +659,7 @@ public class ISO8583Config extends ConfigTestElement
             stopChannelAdaptor();
         }
         stopQ2();
+        ISO8583Metrics.stop();
     }
 
     @Override
@@ -503,6 +687,9 @@ public class ISO8583Config extends ConfigTestElement
     public String getPort() { return getPropertyAsString(PORT); }
     public void setPort(String port) { setProperty(new StringProperty(PORT, port)); }
 
+    public String getConnections() { return getPropertyAsString(CONNECTIONS); }
+    public void setConnections(String connections) { setProperty(new StringProperty(CONNECTIONS, connections)); }
+
     public String getMaxConnections() { return getPropertyAsString(MAXCONNECTIONS); }
     public void setMaxConnections(String maxConnections) { setProperty(new StringProperty(MAXCONNECTIONS, maxConnections)); }
 
@@ -539,6 +726,18 @@ public class ISO8583Config extends ConfigTestElement
     public String getRequestListener() { return getPropertyAsString(REQUESTLISTENER); }
     public void setRequestListener(String requestListener) { setProperty(new StringProperty(REQUESTLISTENER, requestListener)); }
 
+    public String getMockResponseCodes() { return getPropertyAsString(MOCKRESPONSECODES); }
+    public void setMockResponseCodes(String mockResponseCodes) { setProperty(new StringProperty(MOCKRESPONSECODES, mockResponseCodes)); }
+
+    public String getMockMtiMapping() { return getPropertyAsString(MOCKMTIMAPPING); }
+    public void setMockMtiMapping(String mockMtiMapping) { setProperty(new StringProperty(MOCKMTIMAPPING, mockMtiMapping)); }
+
+    public String getMockEchoFields() { return getPropertyAsString(MOCKECHOFIELDS); }
+    public void setMockEchoFields(String mockEchoFields) { setProperty(new StringProperty(MOCKECHOFIELDS, mockEchoFields)); }
+
+    public String getMockLatency() { return getPropertyAsString(MOCKLATENCY); }
+    public void setMockLatency(String mockLatency) { setProperty(new StringProperty(MOCKLATENCY, mockLatency)); }
+
     public String getMtiMapping() { return getPropertyAsString(MTIMAPPING); }
     public void setMtiMapping(String mtiMapping) { setProperty(new StringProperty(MTIMAPPING, mtiMapping)); }
 
@@ -26,7 +26,7 @@ public class ISO8583ConfigBeanInfo extends ISO8583TestElementBeanInfo {
         p.setValue(DEFAULT, "");
 
         createPropertyGroup("Channel", new String[]{
-            CLASSNAME, PACKAGER, HEADER, HOST, PORT, REUSECONNECTION, MAXCONNECTIONS, CONNECTIONSELECTION, CHANNELCONFIG,
+            CLASSNAME, PACKAGER, HEADER, HOST, PORT, REUSECONNECTION, CONNECTIONS, MAXCONNECTIONS, CONNECTIONSELECTION, CHANNELCONFIG,
         });
 
         p = property(CLASSNAME);
@@ -55,6 +55,10 @@ public class ISO8583ConfigBeanInfo extends ISO8583TestElementBeanInfo {
         p.setValue(NOT_UNDEFINED, Boolean.TRUE);
         p.setValue(DEFAULT, Boolean.TRUE);
 
+        p = property(CONNECTIONS);
+        p.setValue(NOT_UNDEFINED, Boolean.TRUE);
+        p.setValue(DEFAULT, "");
+
         p = property(MAXCONNECTIONS);
         p.setValue(NOT_UNDEFINED, Boolean.TRUE);
         p.setValue(DEFAULT, "");
@@ -115,5 +119,25 @@ public class ISO8583ConfigBeanInfo extends ISO8583TestElementBeanInfo {
         p.setValue(NOT_UNDEFINED, Boolean.TRUE);
         p.setPropertyEditorClass(FileEditor.class);
         p.setValue(DEFAULT, "");
+
+        createPropertyGroup("MockResponder", new String[]{
+            MOCKRESPONSECODES, MOCKMTIMAPPING, MOCKECHOFIELDS, MOCKLATENCY,
+        });
+
+        p = property(MOCKRESPONSECODES);
+        p.setValue(NOT_UNDEFINED, Boolean.TRUE);
+        p.setValue(DEFAULT, "");
+
+        p = property(MOCKMTIMAPPING);
+        p.setValue(NOT_UNDEFINED, Boolean.TRUE);
+        p.setValue(DEFAULT, "");
+
+        p = property(MOCKECHOFIELDS);
+        p.setValue(NOT_UNDEFINED, Boolean.TRUE);
+        p.setValue(DEFAULT, "");
+
+        p = property(MOCKLATENCY);
+        p.setValue(NOT_UNDEFINED, Boolean.TRUE);
+        p.setValue(DEFAULT, "");
     }
 }
@@ -2,11 +2,9 @@ package nz.co.breakpoint.jmeter.iso8583;
 
 import java.io.Serializable;
 import java.security.Key;
-import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
-import javax.crypto.spec.SecretKeySpec;
 import org.apache.jmeter.processor.PreProcessor;
 import org.apache.jmeter.samplers.Sampler;
 import org.apache.jmeter.testbeans.TestBean;
@@ -47,8 +45,9 @@ public class ISO8583Crypto extends AbstractTestElement
 
     static final String[] macAlgorithms = new String[]{"", "DESEDE", "ISO9797ALG3MACWITHISO7816-4PADDING"};
 
-    protected transient SecurityModule securityModule = new SecurityModule();
+    protected transient SecurityModule securityModule = SecurityModule.getInstance();
     protected transient Key macKey, pinKey;
+    protected transient byte[] macBuffer = new byte[64]; // large enough for any MAC algorithm's output
 
     @Override
     public void process() {
@@ -83,15 +82,8 @@ public class ISO8583Crypto extends AbstractTestElement
             log.error("Incorrect MAC key length '{}' (expecting 32 or 48 hex digits)", macKeyHex);
             return;
         }
-        Key newKey = new SecretKeySpec(ISOUtil.hex2byte(macKeyHex), macAlgorithm);
-        if (!newKey.equals(this.macKey)) {
-            /* Only assign new key if it is different, to prevent leaking MacEngineKeys in JCEHandler
-             * that only compare keys by reference:
-             * https://github.com/jpos/jPOS/blob/v2_1_10/jpos/src/main/java/org/jpos/security/jceadapter/JCEHandler.java#L442
-             */
-            log.debug("New MAC key instance assigned");
-            this.macKey = newKey;
-        }
+        // Same instance for the same key, to prevent leaking MacEngineKeys in JCEHandler (see SecurityModule):
+        macKey = securityModule.getClearKey(macKeyHex, macAlgorithm);
         ISOMsg msg = sampler.getRequest();
         if (msg.getPackager() == null) {
             log.error("Packager undefined, skipping MAC calculation");
@@ -108,16 +100,18 @@ public class ISO8583Crypto extends AbstractTestElement
         int macLength = fp.getLength();
         int packedLength = fp.getMaxPackedLength();
 
-        final String dummyMac = String.format("%0" + 2*macLength + "d", 0);
-        msg.set(macField, dummyMac);
+        msg.set(macField, new byte[macLength]); // dummy MAC
         try {
             byte[] packedMsg = msg.pack();
             // cut off MAC bytes and don't include them in calculation:
-            String mac = securityModule.generateMAC(Arrays.copyOf(packedMsg, packedMsg.length-packedLength),
-                macKey, macAlgorithm);
+            int length = securityModule.generateMAC(packedMsg, packedMsg.length-packedLength, macKey, macAlgorithm,
+                macBuffer);
+            String mac = ISOUtil.byte2hex(macBuffer, 0, length);
+            // The MAC field has the same length as the dummy, so the packed message gets patched rather than repacked:
             sampler.addField(String.valueOf(macField), ISOUtil.padright(mac, 2*macLength, 'f'));
         } catch (ISOException e) {
             log.error("MAC calculation failed {}", e.toString(), e);
+            msg.unset(macField); // request is reused by the sampler, so don't leave the dummy behind
         }
     }
 
@@ -134,11 +128,9 @@ public class ISO8583Crypto extends AbstractTestElement
         }
         switch (pinKeyHex.length()) {
             case 16:
-                pinKey = new SecretKeySpec(ISOUtil.hex2byte(pinKeyHex), "DES");
-                break;
             case 32:
             case 48:
-                pinKey = new SecretKeySpec(ISOUtil.hex2byte(pinKeyHex), "DESede");
+                pinKey = securityModule.formDESKey(pinKeyHex);
                 break;
             default:
                 log.error("Incorrect PIN key length '{}' (expecting 16, 32 or 48 hex digits)", pinKeyHex);
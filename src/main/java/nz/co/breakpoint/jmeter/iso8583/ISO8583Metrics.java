@@ -0,0 +1,365 @@
+package nz.co.breakpoint.jmeter.iso8583;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.management.*;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.apache.jmeter.util.JMeterUtils;
+import org.jpos.iso.ISOMsg;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import static nz.co.breakpoint.jmeter.iso8583.ISO8583TestElement.*;
+
+/** Process-wide latency histograms per request MTI and response code, broken down into the phases of a sample
+ * (see {@link Phase}), which get published periodically via a {@link MetricsReporter}.
+ * This provides percentiles per message type while the test is running, without post-processing result files.
+ * <br>
+ * Recording is wait-free (via HdrHistogram Recorders) and only enabled if a reporter is configured
+ * via JMeter property, i.e. <code>log</code>, <code>csv</code>, <code>jmx</code> or a custom reporter class name.
+ * <br>
+ * The channel-related phases can only be determined if the channel packs the request and unpacks the response
+ * as {@link CachingISOMsg}, which records when that happens (the case for all jPOS BaseChannel subclasses).
+ */
+public class ISO8583Metrics {
+
+    private static final Logger log = LoggerFactory.getLogger(ISO8583Metrics.class);
+
+    static final int SIGNIFICANT_DIGITS = 3;
+
+    public enum Phase {
+        BUILD,  // building (unless a Preprocessor already did) and packing the request
+        QUEUE,  // from handing over the request to the MUX until the channel picks it up for sending
+        WIRE,   // from the channel picking up the request until the response has been received by the channel
+        UNPACK, // unpacking the response
+        TOTAL,  // from handing over the request to the MUX until the response arrives at the sampler
+        CORRECTED; // from when the request was scheduled to be sent until the response arrives at the sampler
+                   // (same as TOTAL unless scheduled, e.g. by an arrival rate)
+
+        @Override
+        public String toString() { return name().toLowerCase(); }
+    }
+
+    // Keyed by MTI and response code, with one Recorder per Phase:
+    protected static final Map<String, Recorder[]> recorders = new ConcurrentHashMap<>();
+    // Keyed by MTI, response code and Phase (only accessed by the reporting thread):
+    protected static final Map<String, Histogram> accumulated = new HashMap<>();
+
+    private static volatile boolean enabled;
+    private static MetricsReporter reporter;
+    private static ScheduledExecutorService scheduler;
+    private static int users; // number of config elements that started the metrics
+    private static long startTime, lastReport;
+
+    private ISO8583Metrics() {}
+
+    public static boolean isEnabled() { return enabled; }
+
+    public static String key(String mti, String rc, Phase phase) {
+        return mti+"/"+rc+"/"+phase;
+    }
+
+    /** Records the phases of a sample, as far as they can be determined.
+     * All times are System.nanoTime() values.
+     *
+     * @param request the request message
+     * @param response the response message, or null if none was received
+     * @param buildStart when the sampler started building the request
+     * @param sendStart when the request was handed over to the MUX
+     * @param end when the response (or timeout) was notified to the sampler
+     */
+    public static void record(ISOMsg request, ISOMsg response, long buildStart, long sendStart, long end) {
+        record(request, response, buildStart, sendStart, end, 0);
+    }
+
+    /** Records the phases of a sample, including the time from when it was scheduled,
+     * so the TOTAL phase is the uncorrected and the CORRECTED phase the coordinated-omission-corrected latency.
+     *
+     * @param scheduled when the request was scheduled to be sent, or 0 if not scheduled
+     */
+    public static void record(ISOMsg request, ISOMsg response, long buildStart, long sendStart, long end, long scheduled) {
+        if (!enabled) return;
+
+        final String mti = request.getString(0), rc = response == null ? "none" :
+            response.getString(RESPONSE_CODE_FIELD_NO);
+        final Recorder[] phases = recorders.computeIfAbsent((mti != null ? mti : "-")+"/"+(rc != null ? rc : "-"),
+            k -> newRecorders());
+
+        record(phases, Phase.BUILD, sendStart - buildStart);
+        record(phases, Phase.TOTAL, end - sendStart);
+        record(phases, Phase.CORRECTED, end - (scheduled != 0 && scheduled - sendStart < 0 ? scheduled : sendStart));
+
+        if (request instanceof CachingISOMsg && response instanceof CachingISOMsg) {
+            final long pickedUp = ((CachingISOMsg) request).getPackTime(),
+                received = ((CachingISOMsg) response).getUnpackStartTime(),
+                unpacked = ((CachingISOMsg) response).getUnpackEndTime();
+            // The request may have been packed by someone else than the channel (only if it wasn't after sendStart):
+            if (pickedUp - sendStart >= 0 && received - pickedUp >= 0 && unpacked - received >= 0) {
+                record(phases, Phase.QUEUE, pickedUp - sendStart);
+                record(phases, Phase.WIRE, received - pickedUp);
+                record(phases, Phase.UNPACK, unpacked - received);
+            }
+        }
+    }
+
+    protected static void record(Recorder[] phases, Phase phase, long nanos) {
+        if (nanos >= 0) {
+            phases[phase.ordinal()].recordValue(TimeUnit.NANOSECONDS.toMicros(nanos));
+        }
+    }
+
+    protected static Recorder[] newRecorders() {
+        Recorder[] phases = new Recorder[Phase.values().length];
+        for (int i = 0; i < phases.length; ++i) {
+            phases[i] = new Recorder(SIGNIFICANT_DIGITS);
+        }
+        return phases;
+    }
+
+    /** Enables recording and starts periodic reporting (if a reporter is configured), unless already started.
+     */
+    public static synchronized void start() {
+        if (users++ > 0) return;
+
+        final String name = JMeterUtils.getPropDefault(METRICS_REPORTER, "").trim();
+        if (name.isEmpty()) return;
+
+        reporter = createReporter(name);
+        if (reporter == null) return;
+        try {
+            reporter.open();
+        } catch (IOException e) {
+            log.error("Failed to open metrics reporter '{}'", name, e);
+            reporter = null;
+            return;
+        }
+        recorders.clear();
+        accumulated.clear();
+        startTime = lastReport = System.currentTimeMillis();
+        enabled = true;
+
+        final long interval = Math.max(1, JMeterUtils.getPropDefault(METRICS_INTERVAL, 10))*1000L;
+        log.debug("Reporting metrics every {} ms via {}", interval, reporter.getClass().getName());
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "iso8583-metrics");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleAtFixedRate(() -> report(false), interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /** Reports the last interval and a summary, and stops reporting, once the last user has stopped.
+     */
+    public static synchronized void stop() {
+        if (users == 0 || --users > 0 || !enabled) return;
+
+        enabled = false;
+        scheduler.shutdownNow();
+        scheduler = null;
+        report(false);
+        report(true);
+        try {
+            reporter.close();
+        } catch (IOException e) {
+            log.error("Failed to close metrics reporter", e);
+        }
+        reporter = null;
+    }
+
+    protected static synchronized void report(boolean summary) {
+        if (reporter == null) return;
+
+        final long now = System.currentTimeMillis();
+        SortedMap<String, Histogram> histograms = new TreeMap<>();
+        if (summary) {
+            histograms.putAll(accumulated);
+        } else {
+            recorders.forEach((key, phases) -> {
+                for (Phase phase : Phase.values()) {
+                    Histogram interval = phases[phase.ordinal()].getIntervalHistogram();
+                    if (interval.getTotalCount() == 0) continue;
+                    String k = key+"/"+phase;
+                    accumulated.computeIfAbsent(k, x -> new Histogram(SIGNIFICANT_DIGITS)).add(interval);
+                    histograms.put(k, interval);
+                }
+            });
+        }
+        try {
+            reporter.report(now, now - (summary ? startTime : lastReport), histograms, summary);
+        } catch (IOException | RuntimeException e) {
+            log.error("Metrics report failed", e);
+        }
+        lastReport = now;
+    }
+
+    protected static MetricsReporter createReporter(String name) {
+        switch (name.toLowerCase()) {
+            case "log": return new LogReporter();
+            case "csv": return new CsvReporter(JMeterUtils.getPropDefault(METRICS_FILE, "iso8583-metrics.csv"));
+            case "jmx": return new JmxReporter();
+        }
+        try {
+            return Class.forName(name).asSubclass(MetricsReporter.class).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | ClassCastException e) {
+            log.error("Invalid metrics reporter '{}'", name, e);
+            return null;
+        }
+    }
+
+    // Statistics included in each report (in milliseconds, except for count and rate):
+    static final String[] STATISTICS = new String[]{"count", "rate", "mean", "p50", "p90", "p99", "p99.9", "max"};
+
+    static double[] statistics(Histogram h, long intervalMillis) {
+        final double ms = 1000.0;
+        return new double[]{
+            h.getTotalCount(),
+            intervalMillis > 0 ? h.getTotalCount()*1000.0/intervalMillis : 0,
+            h.getMean()/ms,
+            h.getValueAtPercentile(50)/ms,
+            h.getValueAtPercentile(90)/ms,
+            h.getValueAtPercentile(99)/ms,
+            h.getValueAtPercentile(99.9)/ms,
+            h.getMaxValue()/ms,
+        };
+    }
+
+    /** Logs one line per MTI, response code and phase.
+     */
+    public static class LogReporter implements MetricsReporter {
+        @Override
+        public void report(long timestamp, long intervalMillis, SortedMap<String, Histogram> histograms, boolean summary) {
+            histograms.forEach((key, h) -> {
+                double[] s = statistics(h, intervalMillis);
+                log.info(String.format("%s %s: count=%d rate=%.1f/s mean=%.3f p50=%.3f p90=%.3f p99=%.3f p99.9=%.3f max=%.3f ms",
+                    summary ? "Summary" : "Interval", key, (long) s[0], s[1], s[2], s[3], s[4], s[5], s[6], s[7]));
+            });
+        }
+    }
+
+    /** Writes one CSV line per MTI, response code and phase, and reporting interval (and the summary at the end).
+     */
+    public static class CsvReporter implements MetricsReporter {
+        protected final String fileName;
+        protected PrintWriter out;
+
+        public CsvReporter(String fileName) {
+            this.fileName = fileName;
+        }
+
+        @Override
+        public void open() throws IOException {
+            out = new PrintWriter(Files.newBufferedWriter(Paths.get(fileName)));
+            out.println("timeStamp,interval,summary,mti,rc,phase,"+String.join(",", STATISTICS));
+            out.flush();
+        }
+
+        @Override
+        public void report(long timestamp, long intervalMillis, SortedMap<String, Histogram> histograms, boolean summary) {
+            histograms.forEach((key, h) -> {
+                StringBuilder line = new StringBuilder()
+                    .append(timestamp).append(',').append(intervalMillis).append(',').append(summary).append(',')
+                    .append(key.replace('/', ','));
+                for (double s : statistics(h, intervalMillis)) {
+                    line.append(',').append(s);
+                }
+                out.println(line);
+            });
+            out.flush();
+        }
+
+        @Override
+        public void close() {
+            out.close();
+        }
+    }
+
+    /** Exposes the statistics of the latest reporting interval as MBean attributes,
+     * named by MTI, response code, phase and statistic, e.g. <code>0200/00/total/p99</code>.
+     */
+    public static class JmxReporter implements MetricsReporter, DynamicMBean {
+        public static final String OBJECT_NAME = "nz.co.breakpoint.jmeter.iso8583:type=Metrics";
+
+        protected final Map<String, Double> attributes = new ConcurrentHashMap<>();
+        protected ObjectName name;
+
+        @Override
+        public void open() throws IOException {
+            try {
+                name = new ObjectName(OBJECT_NAME);
+                MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+                if (server.isRegistered(name)) {
+                    server.unregisterMBean(name);
+                }
+                server.registerMBean(this, name);
+            } catch (JMException e) {
+                throw new IOException(e);
+            }
+        }
+
+        @Override
+        public void report(long timestamp, long intervalMillis, SortedMap<String, Histogram> histograms, boolean summary) {
+            if (summary) return; // will be unregistered anyway
+            histograms.forEach((key, h) -> {
+                double[] s = statistics(h, intervalMillis);
+                for (int i = 0; i < STATISTICS.length; ++i) {
+                    attributes.put(key+"/"+STATISTICS[i], s[i]);
+                }
+            });
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+            } catch (JMException e) {
+                throw new IOException(e);
+            }
+        }
+
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            Double value = attributes.get(attribute);
+            if (value == null) throw new AttributeNotFoundException(attribute);
+            return value;
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] names) {
+            AttributeList list = new AttributeList();
+            for (String attribute : names) {
+                Double value = attributes.get(attribute);
+                if (value != null) list.add(new Attribute(attribute, value));
+            }
+            return list;
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            MBeanAttributeInfo[] infos = new TreeSet<>(attributes.keySet()).stream()
+                .map(a -> new MBeanAttributeInfo(a, Double.class.getName(), a, true, false, false))
+                .toArray(MBeanAttributeInfo[]::new);
+            return new MBeanInfo(getClass().getName(), "ISO8583 latency metrics", infos, null, null, null);
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException("Read-only "+attribute.getName());
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList list) { return new AttributeList(); }
+
+        @Override
+        public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+            throw new ReflectionException(new NoSuchMethodException(actionName));
+        }
+    }
+}
@@ -1,8 +1,13 @@
 package nz.co.breakpoint.jmeter.iso8583;
 
 import java.io.Serializable;
-import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import org.apache.jmeter.config.ConfigTestElement;
 import org.apache.jmeter.samplers.AbstractSampler;
 import org.apache.jmeter.samplers.Entry;
@@ -11,6 +16,8 @@ import org.apache.jmeter.testbeans.TestBean;
 import org.apache.jmeter.testbeans.TestBeanHelper;
 import org.apache.jmeter.testelement.TestElement;
 import org.apache.jmeter.testelement.property.*;
+import org.apache.jmeter.threads.JMeterVariables;
+import org.apache.jmeter.util.JMeterUtils;
 import org.jpos.iso.*;
 import org.jpos.util.NameRegistrar;
 import org.slf4j.Logger;
@@ -43,9 +50,10 @@ import org.slf4j.LoggerFactory;
             this.sample
                 this.getRequest
  </pre>
- * The ISOMsg gets built in {@link #getRequest()} whenever a Preprocessor needs to access the message.
- * This means it will be rebuilt from Properties, therefore Preprocessor modifications of the message itself won't
- * persist. Instead, the sampler's properties need to be modified.
+ * The ISOMsg gets built in {@link #getRequest()} when a Preprocessor first needs to access the message,
+ * and is then reused until the sampler's fields change (or until it is sent).
+ * As it will be rebuilt from Properties, Preprocessor modifications of the message itself are not guaranteed to
+ * persist. Instead, the sampler's properties need to be modified (e.g. via {@link #addField(String, String)}).
  */
 public class ISO8583Sampler extends AbstractSampler
         implements ISO8583TestElement, TestBean, Serializable {
@@ -62,14 +70,49 @@ public class ISO8583Sampler extends AbstractSampler
         FIELDS = "fields",
         TIMEOUT = "timeout",
         RCFIELD = "responseCodeField",
-        RCSUCCESS = "successResponseCode";
+        RCSUCCESS = "successResponseCode",
+        MAXPENDING = "maxPendingRequests",
+        ARRIVALRATE = "arrivalRate";
+
+    public enum ResultDetail {
+        ALWAYS, // request and response messages for all samples
+        ONERROR, // only for samples failed by the sampler (not by Assertions)
+        NONE;
+
+        // Resolved once (and again at every test start) rather than for every sample
+        private static volatile ResultDetail current = fromProperty();
+
+        public static ResultDetail current() { return current; }
+
+        public static void reload() { current = fromProperty(); }
+
+        // Reads JMeter property, so can be specified per JMeter instance (e.g. for non-GUI runs)
+        public static ResultDetail fromProperty() {
+            final String value = JMeterUtils.getPropDefault(RESULT_DETAIL, "always");
+            try {
+                return valueOf(value.replaceAll("[^A-Za-z]", "").toUpperCase());
+            } catch (IllegalArgumentException e) {
+                log.debug("Invalid {} '{}'", RESULT_DETAIL, value);
+                return ALWAYS;
+            }
+        }
+    }
 
     // These can't be TestElementProperties as they would be saved in the Test Plan:
     protected ISO8583Config config = new ISO8583Config();
     protected ISO8583Component component = new ISO8583Component();
 
     protected transient MessageBuilder builder = new MessageBuilder(); // reusable between samples
+    protected transient ISOMsg request; // built on demand and memoized until fields change, see getRequest()
     protected transient ISOMsg response; // for PostProcessors
+    protected transient ResponseCodeMatcher successMatcher;
+
+    // Asynchronous mode only:
+    protected transient Semaphore window; // limits the number of pending requests
+    protected transient String arrivalRateSpec; // last parsed arrival rate, see getArrivalRateValue()
+    protected transient double arrivalRateValue;
+    protected transient BlockingQueue<PendingRequest> completed; // responses and timeouts not yet returned as results
+    protected transient long nextArrival; // System.nanoTime() when the next request is due (arrival rate only)
 
     private transient boolean prepared = false; // indicates if the fields have been set yet to avoid duplication
 
@@ -101,12 +144,14 @@ public class ISO8583Sampler extends AbstractSampler
              * and each register their own QBeans.
              */
             config.addConfigElement((ISO8583Config) el);
+            request = null;
             // Make sure all messages have a packager available (to interpret String values correctly):
             builder.packager(config.createPackager());
         } else if (el instanceof ISO8583Component) {
             log.debug("Applying component '{}'", el.getName());
             // Add (new) message fields from any ISO8583Component elements in scope to this sampler's fields:
             component.merge((ISO8583Component) el);
+            request = null;
         } else {
             super.addTestElement(el);
         }
@@ -119,6 +164,7 @@ public class ISO8583Sampler extends AbstractSampler
     // before the surrounding ISO8583Component elements.
     @Override
     public void clearTestElementChildren() {
+        request = null;
         TestBeanHelper.prepare(this); // calls all property setters
         prepared = true; // avoid setting fields again after Preprocessors (or their modifications may be overwritten)
     }
@@ -138,45 +184,256 @@ public class ISO8583Sampler extends AbstractSampler
         config.recoverRunningVersion();
         component.recoverRunningVersion();
         prepared = false; // make sure fields get re-applied next time the sampler gets prepared
+        request = null; // temporary fields are gone
     }
 
     @Override
     public SampleResult sample(Entry entry) {
-        SampleResult result = new SampleResult();
-        result.setSampleLabel(getName());
-        result.setDataType(SampleResult.TEXT);
-
-        ISOMsg request = getRequest();
-
-        // Request details...
-        result.setRequestHeaders("Host: "+config.getHost()+"\nPort: "+config.getPort());
-        result.setSamplerData(MessagePrinter.asString(request, true));
-        try {
-            byte[] bytes = request.pack(), header = request.getHeader(), trailer = request.getTrailer();
-            log.debug("Packed request '{}'", ISOUtil.byte2hex(bytes));
-            result.setSentBytes((long) bytes.length +
-                    (header != null ? header.length : 0) + (trailer != null ? trailer.length : 0));
-        } catch (ISOException e) {
-            log.error("Packager error on request '{}'. Check config! {}", getName(), e);
-        } catch (Exception e) {
-            log.error("'{}' request exception: {}", getName(), e);
+        if (isAsync()) {
+            return sampleAsync();
         }
+        final long buildStart = System.nanoTime();
+        final long intendedStart = takeScheduledStart();
+        ISOMsg request = takeRequest();
+        SampleResult result = createResult(request);
 
         // Send the request...
         log.debug("sampleStart");
-        result.sampleStart();
+        if (intendedStart == 0) result.sampleStart();
+        final long sendStart = System.nanoTime();
+        long end = 0;
         try {
             response = sendRequest(request);
         } catch (ISOException | NameRegistrar.NotFoundException e) {
             log.error((e instanceof ISOException) ? "Send failed" : "Incorrect configuration", e);
             result.setResponseMessage(e.toString());
+            addDetails(result, request, null);
             return result;
         } finally {
             log.debug("sampleEnd");
+            end = System.nanoTime();
+            endResult(result, request, intendedStart, sendStart, end);
+        }
+        ISO8583Metrics.record(request, response, buildStart, sendStart, end, toNanoTime(intendedStart, sendStart));
+        processResponse(result, response);
+        addDetails(result, request, response);
+        return result;
+    }
+
+    /* Asynchronous mode: Instead of waiting for its response, a request is handed over to the MUX together with
+     * a callback, so the thread can send the next request while up to getMaxPendingRequests() are outstanding.
+     * Each call returns the result of the oldest completed (or expired) request, if any,
+     * which is then processed in this thread (so Post-Processors see the corresponding response).
+     * Otherwise null is returned, which JMeter ignores.
+     * Only when the maximum number of pending requests is reached, the call blocks until one of them completes.
+     */
+    protected SampleResult sampleAsync() {
+        if (window == null) { // samplers are cloned per thread, so no need to synchronize
+            final int maxPending = getMaxPendingRequests();
+            window = new Semaphore(maxPending > 0 ? maxPending : Integer.MAX_VALUE);
+            completed = new LinkedBlockingQueue<>();
+        }
+        PendingRequest done = null;
+        long intendedStart = 0, scheduled = 0;
+        final double arrivalRate = getArrivalRateValue();
+        if (arrivalRate > 0) {
+            // Open model: wait for the request's scheduled time, meanwhile returning results of completed ones
+            final long now = System.nanoTime();
+            if (nextArrival == 0) nextArrival = now;
+            try {
+                if (nextArrival > now && (done = completed.poll(nextArrival - now, TimeUnit.NANOSECONDS)) != null) {
+                    window.release();
+                    return completeAsync(done);
+                }
+            } catch (InterruptedException e) {
+                log.debug("Interrupted while waiting for next arrival");
+                Thread.currentThread().interrupt();
+                return null;
+            }
+            intendedStart = System.currentTimeMillis() - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - nextArrival);
+            scheduled = nextArrival;
+            nextArrival += (long) (1e9 / arrivalRate); // regardless of how late this request is
+        } else {
+            intendedStart = takeScheduledStart();
+        }
+        try {
+            if (!window.tryAcquire()) {
+                done = completed.take(); // its permit gets passed on to the next request
+            }
+        } catch (InterruptedException e) {
+            log.debug("Interrupted while waiting for pending requests");
+            Thread.currentThread().interrupt();
+            return null;
+        }
+
+        final long buildStart = System.nanoTime();
+        ISOMsg request = takeRequest();
+        PendingRequest pending = new PendingRequest(request, createResult(request));
+        pending.buildStart = buildStart;
+        pending.intendedStart = intendedStart;
+
+        log.debug("sampleStart");
+        if (intendedStart == 0) pending.result.sampleStart();
+        pending.sendStart = System.nanoTime();
+        pending.scheduled = scheduled != 0 ? scheduled : toNanoTime(intendedStart, pending.sendStart);
+        try {
+            config.getMux().request(request, getTimeout(), pending, completed);
+        } catch (ISOException | NameRegistrar.NotFoundException e) {
+            log.error((e instanceof ISOException) ? "Send failed" : "Incorrect configuration", e);
+            pending.end();
+            pending.result.setResponseMessage(e.toString());
+            pending.failed = true;
+            completed.add(pending);
+        }
+
+        if (done == null) {
+            done = completed.poll();
+            if (done == null) return null;
+            window.release();
+        }
+        return completeAsync(done);
+    }
+
+    protected SampleResult completeAsync(PendingRequest done) {
+        response = done.response;
+        if (!done.failed) {
+            ISO8583Metrics.record(done.request, response, done.buildStart, done.sendStart, done.end, done.scheduled);
+            processResponse(done.result, response);
+        }
+        addDetails(done.result, done.request, response);
+        return done.result;
+    }
+
+    // Callback for asynchronous responses, and handback object at the same time
+    protected static class PendingRequest implements ISOResponseListener {
+        final ISOMsg request;
+        final SampleResult result;
+        ISOMsg response;
+        boolean failed;
+        long buildStart, sendStart, end, scheduled; // System.nanoTime() values for ISO8583Metrics
+        long intendedStart; // System.currentTimeMillis() when the request was scheduled (if it was)
+
+        PendingRequest(ISOMsg request, SampleResult result) {
+            this.request = request;
+            this.result = result;
+        }
+
+        void end() {
+            end = System.nanoTime();
+            endResult(result, request, intendedStart, sendStart, end);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void responseReceived(ISOMsg response, Object handBack) {
+            end();
+            this.response = response;
+            ((Queue<PendingRequest>) handBack).add(this);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void expired(Object handBack) {
+            end();
+            ((Queue<PendingRequest>) handBack).add(this);
+        }
+    }
+
+    /* For scheduled requests (by arrival rate or pacing timer), the response time is taken from when the request
+     * should have been sent, i.e. including any delay in sending it, so slow responses that hold up later requests
+     * are not hidden (coordinated omission).
+     * The uncorrected time from actually sending the request is kept as the result's latency.
+     */
+    protected static void endResult(SampleResult result, ISOMsg request, long intendedStart, long sendStart, long end) {
+        setConnectTime(result, request);
+        if (intendedStart > 0) {
+            final long now = System.currentTimeMillis(), latency = TimeUnit.NANOSECONDS.toMillis(end - sendStart);
+            final long start = Math.min(intendedStart, now - latency); // in case it was scheduled in the future
+            result.setStampAndTime(result.isStampedAtStart() ? start : now, now - start);
+            result.setLatency(latency);
+        } else {
             result.sampleEnd();
         }
+    }
+
+    // Only known for requests sent over a new connection by a SelectorOneShotChannelAdaptor
+    protected static void setConnectTime(SampleResult result, ISOMsg request) {
+        if (!(request instanceof CachingISOMsg)) return;
+        final long connectTime = ((CachingISOMsg) request).getConnectTime();
+        if (connectTime > 0) result.setConnectTime(TimeUnit.NANOSECONDS.toMillis(connectTime));
+    }
+
+    // Converts a System.currentTimeMillis() value to System.nanoTime() (0 stays 0)
+    protected static long toNanoTime(long millis, long nanoTime) {
+        return millis == 0 ? 0
+            : nanoTime - TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis() - millis);
+    }
+
+    /* Scheduled start (System.currentTimeMillis()) of the next request, if a pacing timer or script
+     * has put it into the JMeter variable named by the scheduledStartVariable property, or 0 otherwise.
+     * The variable is removed, so a stale value is never applied to later requests.
+     */
+    protected long takeScheduledStart() {
+        final String name = JMeterUtils.getPropDefault(SCHEDULED_START_VARIABLE, "").trim();
+        final JMeterVariables vars = getThreadContext().getVariables();
+        if (name.isEmpty() || vars == null) return 0;
+
+        final Object value = vars.remove(name);
+        if (value == null) return 0;
+        try {
+            return value instanceof Number ? ((Number) value).longValue() : Long.parseLong(value.toString().trim());
+        } catch (NumberFormatException e) {
+            log.error("Invalid scheduled start '{}'", value);
+            return 0;
+        }
+    }
+
+    protected boolean isAsync() {
+        return (getMaxPendingRequests() > 1 || getArrivalRateValue() > 0)
+            && getTimeout() > 0; // fire-and-forget is never waiting anyway
+    }
+
+    // Requests per second (per thread), or 0 if not defined (only parsed when changed, so errors are logged once)
+    protected double getArrivalRateValue() {
+        final String arrivalRate = getArrivalRate();
+        if (arrivalRate == null ? arrivalRateSpec == null : arrivalRate.equals(arrivalRateSpec)) {
+            return arrivalRateValue;
+        }
+        arrivalRateSpec = arrivalRate;
+        arrivalRateValue = 0;
+        if (arrivalRate == null || arrivalRate.trim().isEmpty()) return 0;
+        try {
+            arrivalRateValue = Double.parseDouble(arrivalRate.trim());
+        } catch (NumberFormatException e) {
+            log.error("Invalid arrival rate '{}'", arrivalRate);
+        }
+        return arrivalRateValue;
+    }
+
+    // Populates request details
+    protected SampleResult createResult(ISOMsg request) {
+        SampleResult result = new SampleResult();
+        result.setSampleLabel(getName());
+        result.setDataType(SampleResult.TEXT);
+
+        result.setRequestHeaders("Host: "+config.getHost()+"\nPort: "+config.getPort());
+        try {
+            byte[] bytes = request.pack(), header = request.getHeader(), trailer = request.getTrailer();
+            if (log.isDebugEnabled()) {
+                log.debug("Packed request '{}'", ISOUtil.byte2hex(bytes));
+            }
+            result.setSentBytes((long) bytes.length +
+                    (header != null ? header.length : 0) + (trailer != null ? trailer.length : 0));
+        } catch (ISOException e) {
+            log.error("Packager error on request '{}'. Check config! {}", getName(), e);
+        } catch (Exception e) {
+            log.error("'{}' request exception: {}", getName(), e);
+        }
+        return result;
+    }
 
-        // Response validation...
+    // Response validation and details
+    protected void processResponse(SampleResult result, ISOMsg response) {
         if (response == null) {
             if (getTimeout() == 0) { // fire-and-forget
                 result.setResponseMessage("No response");
@@ -184,7 +441,7 @@ public class ISO8583Sampler extends AbstractSampler
             } else {
                 result.setResponseMessage("Timeout");
             }
-            return result;
+            return;
         }
         result.setSuccessful(true); // at least we received a response, so start off as success
         result.setResponseMessageOK();
@@ -196,18 +453,26 @@ public class ISO8583Sampler extends AbstractSampler
 
             String success = getSuccessResponseCode();
             if (success != null && !success.isEmpty()) {
-                if (Arrays.stream(success.split(DELIMITER_REGEX)).noneMatch(s -> s.equals(rc))) {
+                if (successMatcher == null || !successMatcher.getSpec().equals(success)) { // only parse when changed
+                    successMatcher = new ResponseCodeMatcher(success);
+                }
+                String mti = null;
+                try {
+                    mti = response.getMTI();
+                } catch (ISOException ignore) {} // no MTI-specific response codes then
+                if (!successMatcher.matches(mti, rc)) {
                     result.setSuccessful(false);
                     result.setResponseMessage("Unexpected response code "+rc);
                 }
             }
         }
 
-        // Response details...
-        result.setResponseData(MessagePrinter.asString(response, true), null);
+        // Response details (taken from the received bytes, see CachingISOMsg)...
         try {
             byte[] bytes = response.pack(), header = response.getHeader(), trailer = response.getTrailer();
-            log.debug("Packed response '{}'", ISOUtil.byte2hex(bytes));
+            if (log.isDebugEnabled()) {
+                log.debug("Packed response '{}'", ISOUtil.byte2hex(bytes));
+            }
             result.setHeadersSize((header != null ? header.length : 0) + (trailer != null ? trailer.length : 0));
             result.setBodySize((long) bytes.length);
         } catch (ISOException e) {
@@ -215,7 +480,21 @@ public class ISO8583Sampler extends AbstractSampler
         } catch (Exception e) {
             log.error("'{}' response exception {}", getName(), e);
         }
-        return result;
+    }
+
+    /* Message dumps are only rendered once the sampler's own outcome is known (Assertions only run afterwards),
+     * and only as far as the detail level asks for them, as they are costly and not needed
+     * if nothing looks at them (e.g. CSV result files in non-GUI mode).
+     */
+    protected void addDetails(SampleResult result, ISOMsg request, ISOMsg response) {
+        ResultDetail detail = ResultDetail.current();
+        if (detail == ResultDetail.NONE || detail == ResultDetail.ONERROR && result.isSuccessful()) {
+            return;
+        }
+        result.setSamplerData(MessagePrinter.asString(request, true));
+        if (response != null) {
+            result.setResponseData(MessagePrinter.asString(response, true), null);
+        }
     }
 
     protected ISOMsg sendRequest(ISOMsg request) throws ISOException, NameRegistrar.NotFoundException {
@@ -232,25 +511,51 @@ public class ISO8583Sampler extends AbstractSampler
         return builder.header(getHeader()).trailer(getTrailer()).getMessage();
     }
 
+    // Once sent, the request must not be modified any more (in particular not while pending in asynchronous mode),
+    // so any subsequent access builds a new one.
+    protected ISOMsg takeRequest() {
+        ISOMsg msg = getRequest();
+        request = null;
+        return msg;
+    }
+
     // For programmatic access from Pre-/PostProcessors...
-    public ISOMsg getRequest() { return buildRequest(); }
+    public ISOMsg getRequest() {
+        if (request == null) {
+            request = buildRequest();
+        }
+        return request;
+    }
     public ISOMsg getResponse() { return response; }
 
     public void addField(String id, String value) { addField(id, value, ""); }
-    public void addField(String id, String value, String tag) { component.addField(new MessageField(id, value, tag)); }
-    public void removeField(String id) { component.removeField(id); }
+    public void addField(String id, String value, String tag) {
+        MessageField field = new MessageField(id, value, tag);
+        component.addField(field);
+        if (request != null) { // no need to rebuild, as an added field simply overrides any previous definition
+            try {
+                builder.extend(Collections.singletonList(field));
+            } catch (ISOException e) {
+                log.error("Field incorrect", e);
+            }
+        }
+    }
+    public void removeField(String id) {
+        component.removeField(id);
+        request = null;
+    }
 
     public String getConfigKey() { return getPropertyAsString(CONFIGKEY); }
     public void setConfigKey(String configKey) { setProperty(new StringProperty(CONFIGKEY, configKey)); }
 
     public String getHeader() { return getPropertyAsString(HEADER); }
-    public void setHeader(String header) { if (!prepared) setProperty(HEADER, header); }
+    public void setHeader(String header) { if (!prepared) { setProperty(HEADER, header); request = null; } }
 
     public String getTrailer() { return getPropertyAsString(TRAILER); }
-    public void setTrailer(String trailer) { if (!prepared) setProperty(TRAILER, trailer); }
+    public void setTrailer(String trailer) { if (!prepared) { setProperty(TRAILER, trailer); request = null; } }
 
     public Collection<MessageField> getFields() { return component.getFields(); }
-    public void setFields(Collection<MessageField> fields) { if (!prepared) component.setFields(fields); }
+    public void setFields(Collection<MessageField> fields) { if (!prepared) { component.setFields(fields); request = null; } }
 
     public int getTimeout() { return getPropertyAsInt(TIMEOUT); }
     public void setTimeout(int timeout) { setProperty(new IntegerProperty(TIMEOUT, timeout)); }
@@ -260,4 +565,10 @@ public class ISO8583Sampler extends AbstractSampler
 
     public String getSuccessResponseCode() { return getPropertyAsString(RCSUCCESS); }
     public void setSuccessResponseCode(String successResponseCode) { setProperty(RCSUCCESS, successResponseCode); }
+
+    public int getMaxPendingRequests() { return getPropertyAsInt(MAXPENDING); }
+    public void setMaxPendingRequests(int maxPendingRequests) { setProperty(new IntegerProperty(MAXPENDING, maxPendingRequests)); }
+
+    public String getArrivalRate() { return getPropertyAsString(ARRIVALRATE); }
+    public void setArrivalRate(String arrivalRate) { setProperty(ARRIVALRATE, arrivalRate); }
 }
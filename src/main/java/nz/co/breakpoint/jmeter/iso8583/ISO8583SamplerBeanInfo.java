@@ -9,7 +9,11 @@ import java.beans.PropertyDescriptor;
 public class ISO8583SamplerBeanInfo extends ISO8583TestElementBeanInfo {
 
     public ISO8583SamplerBeanInfo() {
-        super(ISO8583Sampler.class);
+        this(ISO8583Sampler.class);
+    }
+
+    protected ISO8583SamplerBeanInfo(Class<? extends ISO8583Sampler> clazz) {
+        super(clazz);
 
         PropertyDescriptor p;
 
@@ -34,7 +38,7 @@ public class ISO8583SamplerBeanInfo extends ISO8583TestElementBeanInfo {
         createMessageFieldsTableProperty(FIELDS);
 
         createPropertyGroup("Response", new String[]{
-            TIMEOUT, RCFIELD, RCSUCCESS,
+            TIMEOUT, RCFIELD, RCSUCCESS, MAXPENDING, ARRIVALRATE,
         });
         p = property(TIMEOUT);
         p.setPropertyEditorClass(IntegerPropertyEditor.class);
@@ -48,5 +52,14 @@ public class ISO8583SamplerBeanInfo extends ISO8583TestElementBeanInfo {
         p = property(RCSUCCESS);
         p.setValue(NOT_UNDEFINED, Boolean.TRUE);
         p.setValue(DEFAULT, "00");
+
+        p = property(MAXPENDING);
+        p.setPropertyEditorClass(IntegerPropertyEditor.class);
+        p.setValue(NOT_UNDEFINED, Boolean.TRUE);
+        p.setValue(DEFAULT, 1); // synchronous
+
+        p = property(ARRIVALRATE);
+        p.setValue(NOT_UNDEFINED, Boolean.TRUE);
+        p.setValue(DEFAULT, ""); // closed model
     }
 }
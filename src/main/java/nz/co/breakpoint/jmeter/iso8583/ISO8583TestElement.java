@@ -17,10 +17,19 @@ public interface ISO8583TestElement extends TestBean {
         Q2_STARTUP_TIMEOUT = "jmeter.iso8583.q2StartupTimeout",
         Q2_PACKAGER_LOGGING = "jmeter.iso8583.q2PackagerLogging",
         INCOMING_CONNECTION_TIMEOUT = "jmeter.iso8583.incomingConnectionTimeout",
+        OUTGOING_CONNECTION_TIMEOUT = "jmeter.iso8583.outgoingConnectionTimeout",
+        MIN_READY_CONNECTIONS = "jmeter.iso8583.minReadyConnections",
+        REQUEST_LISTENER_THREADS = "jmeter.iso8583.requestListenerThreads",
+        OUTSTANDING_TIMEOUT = "jmeter.iso8583.outstandingTimeout",
         ARQC_INPUT_TAGS = "jmeter.iso8583.arqcInputTags",
         FULL_IAD_CVNS = "jmeter.iso8583.arqcFromFullIADForCVNs",
         BINARY_FIELD_TAGS = "jmeter.iso8583.binaryFieldTags",
-        KSN_DESCRIPTOR = "jmeter.iso8583.ksnDescriptor";
+        KSN_DESCRIPTOR = "jmeter.iso8583.ksnDescriptor",
+        RESULT_DETAIL = "jmeter.iso8583.resultDetail",
+        SCHEDULED_START_VARIABLE = "jmeter.iso8583.scheduledStartVariable",
+        METRICS_REPORTER = "jmeter.iso8583.metricsReporter",
+        METRICS_INTERVAL = "jmeter.iso8583.metricsInterval",
+        METRICS_FILE = "jmeter.iso8583.metricsFile";
 
     String DELIMITER_REGEX = "[,;:. ]+";
 }
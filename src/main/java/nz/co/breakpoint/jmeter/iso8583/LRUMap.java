@@ -0,0 +1,29 @@
+package nz.co.breakpoint.jmeter.iso8583;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** Map with a maximum size, which evicts the least recently used entry when full.
+ * Not thread-safe (even reads modify the access order), see {@link #synchronizedLRUMap(int)}.
+ */
+public class LRUMap<K, V> extends LinkedHashMap<K, V> {
+
+    private static final long serialVersionUID = 1L;
+
+    protected final int maxSize;
+
+    public LRUMap(int maxSize) {
+        super(16, 0.75f, true);
+        this.maxSize = maxSize;
+    }
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+        return size() > maxSize;
+    }
+
+    public static <K, V> Map<K, V> synchronizedLRUMap(int maxSize) {
+        return Collections.synchronizedMap(new LRUMap<>(maxSize));
+    }
+}
@@ -0,0 +1,52 @@
+package nz.co.breakpoint.jmeter.iso8583;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.jpos.iso.ISOMsg;
+import org.jpos.iso.MUX;
+import org.jpos.q2.iso.MUXPool;
+import org.jpos.util.NameRegistrar;
+
+/** MUXPool strategy that selects the connected MUX with the fewest outstanding requests
+ * (which requires the pool's MUXes to be {@link CountingQMUX} instances).
+ * Ties are broken round-robin, so connections get used evenly under low load.
+ * If none of the MUXes is connected, null is returned so the pool falls back to its configured strategy
+ * (which waits for a connection).
+ */
+public class LeastOutstandingStrategy implements MUXPool.StrategyHandler {
+
+    protected final AtomicInteger msgno = new AtomicInteger();
+    protected volatile CountingQMUX[] muxes; // resolved on first use, as the pool's MUXes are deployed beforehand
+
+    @Override
+    public MUX getMUX(MUXPool pool, ISOMsg m, long maxWait) {
+        final CountingQMUX[] muxes = getMuxes(pool);
+        final int n = muxes.length;
+        if (n == 0) return null;
+
+        final int start = (msgno.getAndIncrement() & Integer.MAX_VALUE) % n;
+        CountingQMUX selected = null;
+        int min = Integer.MAX_VALUE;
+        for (int i = 0; i < n; ++i) {
+            CountingQMUX mux = muxes[(start + i) % n];
+            if (mux.isConnected()) {
+                int outstanding = mux.getOutstanding();
+                if (outstanding < min) {
+                    min = outstanding;
+                    selected = mux;
+                }
+            }
+        }
+        return selected;
+    }
+
+    protected CountingQMUX[] getMuxes(MUXPool pool) {
+        if (muxes == null) {
+            muxes = Arrays.stream(pool.getMuxNames())
+                .map(name -> NameRegistrar.getIfExists("mux."+name))
+                .filter(mux -> mux instanceof CountingQMUX)
+                .toArray(CountingQMUX[]::new);
+        }
+        return muxes;
+    }
+}
@@ -1,5 +1,7 @@
 package nz.co.breakpoint.jmeter.iso8583;
 
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import org.apache.jmeter.util.JMeterUtils;
 import org.jpos.emv.EMVStandardTagType;
 import org.jpos.emv.UnknownTagNumberException;
@@ -11,17 +13,86 @@ import static nz.co.breakpoint.jmeter.iso8583.ISO8583TestElement.DELIMITER_REGEX
 /** Builds an ISOMsg from elements configured in the JMeter script.
  * Interprets the field content as binary or non-binary depending on the packager configuration.
  * Must have an ISOBasePackager assigned to be able to find the fields' classes.
+ * <br>
+ * Field definitions are compiled into templates once (per packager), so that only the fields' content
+ * needs to be evaluated when a message gets built.
  */
 public class MessageBuilder {
 
     protected ISOMsg msg;
 
+    // Compiled field definitions, keyed by field name as configured (not thread-safe, so one builder per thread):
+    protected final Map<String, FieldTemplate> templates = new HashMap<>();
+
+    /** Everything about a field definition that depends only on its id, tag and the packager,
+     * i.e. not on its (possibly variable) content.
+     */
+    protected static class FieldTemplate {
+        final String configuredTag; // to detect changes
+        final String id, tag; // trimmed
+        final int fieldNo; // top-level field number, or -1 for nested fields
+        final int subfieldId; // for tagged fields
+        final boolean binary;
+
+        FieldTemplate(String id, String configuredTag, boolean binary) {
+            this.configuredTag = configuredTag;
+            this.id = id;
+            this.tag = configuredTag.trim();
+            this.fieldNo = id.indexOf('.') < 0 ? Integer.parseInt(id) : -1;
+            this.subfieldId = isTagged() ? Integer.parseInt(id.substring(id.lastIndexOf('.')+1)) : -1;
+            this.binary = binary;
+        }
+
+        boolean isTagged() { return !tag.isEmpty(); }
+    }
+
+    // Binary decisions per packager and field path, shared between threads (as are the packagers, see PackagerRegistry):
+    protected static final Map<ISOPackager, Map<String, Boolean>> binaryFields =
+        Collections.synchronizedMap(new WeakHashMap<>());
+
+    // Binary decisions per tag, for the current value of the binaryFieldTags property:
+    protected static volatile TagClassification binaryTags = new TagClassification("");
+
+    /** Classifies tags as binary or not, for a given value of the binaryFieldTags property.
+     * Each tag only gets looked up in the standard EMV tags (and the property) once,
+     * as unknown tags are costly due to the exception thrown.
+     */
+    protected static class TagClassification {
+        final String property;
+        final Set<String> additionalTags = new HashSet<>(); // upper case
+        final Map<String, Boolean> classified = new ConcurrentHashMap<>(); // keyed by tag as given
+
+        TagClassification(String property) {
+            this.property = property;
+            for (String bft : property.split(DELIMITER_REGEX)) {
+                additionalTags.add(bft.toUpperCase());
+            }
+        }
+
+        boolean isBinary(String tag) {
+            return classified.computeIfAbsent(tag, this::classify);
+        }
+
+        boolean classify(String tag) {
+            try {
+                // try to find it in the standard EMV tags:
+                switch (EMVStandardTagType.forHexCode(tag).getFormat()) {
+                    case BINARY:
+                    case CONSTRUCTED:
+                    case PROPRIETARY:
+                        return true;
+                }
+            } catch (UnknownTagNumberException ignore) {}
+            return additionalTags.contains(tag.toUpperCase());
+        }
+    }
+
     public MessageBuilder() {
         init(null, null, null);
     }
 
     protected void init(ISOPackager packager, ISOHeader header, byte[] trailer) {
-        msg = new ISOMsg();
+        msg = new CachingISOMsg();
         msg.setPackager(packager);
         msg.setHeader(header);
         msg.setTrailer(trailer);
@@ -33,6 +104,9 @@ public class MessageBuilder {
     }
 
     public MessageBuilder packager(ISOPackager packager) {
+        if (packager != msg.getPackager()) {
+            templates.clear(); // binary decisions depend on the packager
+        }
         msg.setPackager(packager);
         return this;
     }
@@ -59,53 +133,63 @@ public class MessageBuilder {
     public MessageBuilder extend(Iterable<MessageField> fields) throws ISOException {
         if (fields != null) {
             for (MessageField f : fields) {
-                final String id = f.getName().trim(), tag = f.getTag().trim();
+                final FieldTemplate t = compile(f);
 
-                if (id.isEmpty()) continue; // ignore incomplete table rows
+                if (t == null) continue; // ignore incomplete table rows
 
-                if (tag.isEmpty()) {
-                    // no tag => let ISOMsg parse the id
-                    if (isBinaryField(id)) {
-                        msg.set(id, ISOUtil.hex2byte(f.getContent()));
+                final String content = f.getContent();
+                if (!t.isTagged()) {
+                    // no tag => let ISOMsg parse the id (unless it is a top-level field)
+                    if (t.binary) {
+                        if (t.fieldNo < 0) msg.set(t.id, ISOUtil.hex2byte(content));
+                        else msg.set(t.fieldNo, ISOUtil.hex2byte(content));
                     } else {
-                        msg.set(id, f.getContent());
+                        if (t.fieldNo < 0) msg.set(t.id, content);
+                        else msg.set(t.fieldNo, content);
                     }
                 } else {
-                    // tag => ISOTaggedField has to be created explicitly, and needs to know the subfield Id:
-                    int lastDot = id.lastIndexOf('.');
-                    int subfieldId = Integer.parseInt(id.substring(lastDot+1));
-
+                    // tag => ISOTaggedField has to be created explicitly, and needs to know the subfield Id.
                     // Make sure any binary tags' contents are interpreted correctly:
-                    ISOComponent content = isBinaryField(id) || isBinaryFieldTag(tag) ?
-                        new ISOBinaryField(subfieldId, ISOUtil.hex2byte(f.getContent())) :
-                        new ISOField(subfieldId, f.getContent());
+                    ISOComponent component = t.binary || isBinaryFieldTag(t.tag) ?
+                        new ISOBinaryField(t.subfieldId, ISOUtil.hex2byte(content)) :
+                        new ISOField(t.subfieldId, content);
 
-                    msg.set(id, new ISOTaggedField(tag, content));
+                    msg.set(t.id, new ISOTaggedField(t.tag, component));
                 }
             }
         }
         return this;
     }
 
+    // Returns the field's template, compiling it if not done before, or null if the field has no id
+    protected FieldTemplate compile(MessageField f) {
+        final String name = f.getName(), tag = f.getTag();
+        FieldTemplate t = templates.get(name);
+        if (t == null || !t.configuredTag.equals(tag)) {
+            final String id = name.trim();
+            if (id.isEmpty()) return null;
+            t = new FieldTemplate(id, tag, isBinaryField(id));
+            templates.put(name, t);
+        }
+        return t;
+    }
+
     protected boolean isBinaryFieldTag(String tag) {
-        try {
-            // try to find it in the standard EMV tags:
-            switch (EMVStandardTagType.forHexCode(tag).getFormat()) {
-                case BINARY:
-                case CONSTRUCTED:
-                case PROPRIETARY:
-                    return true;
-            }
-        } catch (UnknownTagNumberException ignore) {}
-        for (String bft : JMeterUtils.getPropDefault(BINARY_FIELD_TAGS, "").split(DELIMITER_REGEX)) {
-            if (bft.equalsIgnoreCase(tag))
-                return true;
+        // The property may change at runtime, so only reclassify when it does:
+        final String property = JMeterUtils.getPropDefault(BINARY_FIELD_TAGS, "");
+        TagClassification classification = binaryTags;
+        if (!classification.property.equals(property)) {
+            binaryTags = classification = new TagClassification(property);
         }
-        return false;
+        return classification.isBinary(tag);
     }
 
     protected boolean isBinaryField(String id) {
-        return isBinaryField(id, msg.getPackager());
+        final ISOPackager packager = msg.getPackager();
+        if (!(packager instanceof ISOBasePackager)) return false; // packager unknown, use String value
+
+        return binaryFields.computeIfAbsent(packager, p -> new ConcurrentHashMap<>())
+            .computeIfAbsent(id, i -> isBinaryField(i, packager));
     }
 
     protected boolean isBinaryField(String id, ISOPackager packager) {
@@ -0,0 +1,33 @@
+package nz.co.breakpoint.jmeter.iso8583;
+
+import java.io.IOException;
+import java.util.SortedMap;
+import org.HdrHistogram.Histogram;
+
+/** Publishes the latency histograms collected by {@link ISO8583Metrics}.
+ * Implementations need a public no-argument constructor, so they can be selected via JMeter property
+ * (by fully qualified class name).
+ */
+public interface MetricsReporter {
+
+    /** Called once before the first report.
+     */
+    default void open() throws IOException {}
+
+    /** Called periodically with the histograms recorded since the previous call, and finally (at the end of the test)
+     * with the histograms accumulated over the entire test, which is indicated by the summary flag.
+     * Histograms are keyed by {@link ISO8583Metrics#key(String, String, ISO8583Metrics.Phase)}
+     * and have values in microseconds.
+     *
+     * @param timestamp end of the reporting interval (milliseconds since epoch)
+     * @param intervalMillis length of the reporting interval
+     * @param histograms non-empty histograms in key order
+     * @param summary whether this is the final report
+     */
+    void report(long timestamp, long intervalMillis, SortedMap<String, Histogram> histograms, boolean summary)
+        throws IOException;
+
+    /** Called once after the final report.
+     */
+    default void close() throws IOException {}
+}
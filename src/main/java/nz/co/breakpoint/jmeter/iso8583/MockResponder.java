@@ -0,0 +1,176 @@
+package nz.co.breakpoint.jmeter.iso8583;
+
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import org.jpos.core.Configurable;
+import org.jpos.core.Configuration;
+import org.jpos.core.ConfigurationException;
+import org.jpos.iso.ISOException;
+import org.jpos.iso.ISOMsg;
+import org.jpos.iso.ISORequestListener;
+import org.jpos.iso.ISOSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import static nz.co.breakpoint.jmeter.iso8583.ISO8583TestElement.DELIMITER_REGEX;
+import static nz.co.breakpoint.jmeter.iso8583.ISO8583TestElement.RESPONSE_CODE_FIELD_NO;
+
+/** Responds to incoming requests without any scripting, as configured by the following properties:<ul>
+ *   <li><i>response-codes</i>: A response code (field 39), or several with relative weights to pick one at random,
+ *   e.g. "00=95,05=5".</li>
+ *   <li><i>mti-mapping</i>: Request and response MTIs, e.g. "0200=0210,0800=0810".
+ *   If given, only requests with those MTIs are responded to (others are left to further listeners).
+ *   If not given, all requests are responded to, with the standard response MTI.</li>
+ *   <li><i>echo-fields</i>: Request fields that are returned in the response (default: all).</li>
+ *   <li><i>latency</i>: Milliseconds before the response is sent: fixed ("20"), uniformly distributed ("10-50"),
+ *   or exponentially distributed with the given mean ("exp:30").</li>
+ * </ul>
+ * Delayed responses are sent from a shared {@link TimerWheel}, so no thread is blocked while waiting.
+ */
+public class MockResponder implements ISORequestListener, Configurable {
+
+    private static final Logger log = LoggerFactory.getLogger(MockResponder.class);
+
+    // Created when needed, shared by all instances:
+    protected static class Timer {
+        static final TimerWheel wheel = new TimerWheel();
+    }
+
+    protected String[] responseCodes;
+    protected int[] cumulativeWeights;
+    protected Map<String, String> mtiMapping;
+    protected int[] echoFields;
+    protected long minLatency, maxLatency;
+    protected boolean exponential;
+
+    @Override
+    public void setConfiguration(Configuration cfg) throws ConfigurationException {
+        parseResponseCodes(cfg.get("response-codes", "00"));
+        parseMtiMapping(cfg.get("mti-mapping", ""));
+        parseEchoFields(cfg.get("echo-fields", ""));
+        parseLatency(cfg.get("latency", "0"));
+    }
+
+    protected void parseResponseCodes(String spec) throws ConfigurationException {
+        final String[] tokens = spec.trim().split(DELIMITER_REGEX);
+        responseCodes = new String[tokens.length];
+        cumulativeWeights = new int[tokens.length];
+        int total = 0;
+        for (int i = 0; i < tokens.length; ++i) {
+            String[] parts = tokens[i].split("=", 2);
+            responseCodes[i] = parts[0];
+            final int weight;
+            try {
+                weight = parts.length == 1 ? 1 : Integer.parseInt(parts[1]);
+            } catch (NumberFormatException e) {
+                throw new ConfigurationException("Invalid response code weight '"+tokens[i]+"'", e);
+            }
+            if (weight < 0) {
+                throw new ConfigurationException("Negative response code weight '"+tokens[i]+"'");
+            }
+            total += weight;
+            cumulativeWeights[i] = total;
+        }
+        if (total <= 0) {
+            throw new ConfigurationException("Invalid response codes '"+spec+"' (weights add up to zero)");
+        }
+    }
+
+    protected void parseMtiMapping(String spec) throws ConfigurationException {
+        mtiMapping = null;
+        if (spec.trim().isEmpty()) return;
+
+        mtiMapping = new HashMap<>();
+        for (String token : spec.trim().split(DELIMITER_REGEX)) {
+            String[] parts = token.split("=", 2);
+            if (parts.length != 2) {
+                throw new ConfigurationException("Invalid MTI mapping '"+token+"' (expecting request=response)");
+            }
+            mtiMapping.put(parts[0], parts[1]);
+        }
+    }
+
+    protected void parseEchoFields(String spec) throws ConfigurationException {
+        echoFields = null;
+        if (spec.trim().isEmpty()) return;
+        try {
+            echoFields = Arrays.stream(spec.trim().split(DELIMITER_REGEX)).mapToInt(Integer::parseInt).toArray();
+        } catch (NumberFormatException e) {
+            throw new ConfigurationException("Invalid echo fields '"+spec+"'", e);
+        }
+    }
+
+    protected void parseLatency(String spec) throws ConfigurationException {
+        String s = spec.trim();
+        exponential = s.startsWith("exp:");
+        if (exponential) s = s.substring(4);
+        try {
+            String[] parts = s.split("-", 2);
+            minLatency = Long.parseLong(parts[0].trim());
+            maxLatency = parts.length == 1 ? minLatency : Long.parseLong(parts[1].trim());
+        } catch (NumberFormatException e) {
+            throw new ConfigurationException("Invalid latency '"+spec+"'", e);
+        }
+        if (exponential && maxLatency != minLatency) {
+            throw new ConfigurationException("Invalid latency '"+spec+"' (no range for exponential distribution)");
+        }
+        if (minLatency < 0 || maxLatency < minLatency) {
+            throw new ConfigurationException("Invalid latency '"+spec+"'");
+        }
+    }
+
+    protected String nextResponseCode() {
+        if (responseCodes.length == 1) return responseCodes[0];
+
+        final int r = ThreadLocalRandom.current().nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+        int i = 0;
+        while (cumulativeWeights[i] <= r) ++i;
+        return responseCodes[i];
+    }
+
+    protected long nextLatency() {
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (exponential) return Math.round(-minLatency * Math.log(1 - random.nextDouble()));
+        return minLatency == maxLatency ? minLatency : random.nextLong(minLatency, maxLatency + 1);
+    }
+
+    @Override
+    public boolean process(ISOSource source, ISOMsg request) {
+        try {
+            if (!request.isRequest()) return false;
+
+            final String mti = request.getMTI();
+            String responseMTI = null;
+            if (mtiMapping != null) {
+                responseMTI = mtiMapping.get(mti);
+                if (responseMTI == null) return false;
+            }
+            ISOMsg response = echoFields == null ? (ISOMsg) request.clone() : (ISOMsg) request.clone(echoFields);
+            if (responseMTI == null) {
+                response.setMTI(mti);
+                response.setResponseMTI();
+            } else {
+                response.setMTI(responseMTI);
+            }
+            response.set(RESPONSE_CODE_FIELD_NO, nextResponseCode());
+
+            final long latency = nextLatency();
+            if (latency <= 0) {
+                send(source, response);
+            } else {
+                Timer.wheel.schedule(() -> send(source, response), latency);
+            }
+            return true;
+        } catch (ISOException e) {
+            log.warn("Cannot respond to request", e);
+            return false;
+        }
+    }
+
+    protected void send(ISOSource source, ISOMsg response) {
+        try {
+            source.send(response);
+        } catch (Exception e) {
+            log.warn("Failed to send response: {}", e.toString());
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package nz.co.breakpoint.jmeter.iso8583;
+
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.jpos.iso.ISOException;
+import org.jpos.iso.ISOPackager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/** Process-wide cache of packagers, keyed by packager configuration file.
+ * Parsing the XML file is expensive, so it is done only once rather than every time a sampler gets configured.
+ * Packagers are not modified after parsing, so the same instance can be shared between all threads.
+ * A packager gets reloaded if the file's modification time changes.
+ */
+public class PackagerRegistry {
+
+    private static final Logger log = LoggerFactory.getLogger(PackagerRegistry.class);
+
+    protected static final Map<String, CachedPackager> packagers = new ConcurrentHashMap<>();
+
+    protected static class CachedPackager {
+        final long lastModified;
+        final ISOPackager packager;
+
+        CachedPackager(long lastModified, ISOPackager packager) {
+            this.lastModified = lastModified;
+            this.packager = packager;
+        }
+    }
+
+    private PackagerRegistry() {}
+
+    public static ISOPackager getPackager(String fileName) throws ISOException {
+        // 0 if not a file, e.g. a jar: resource, which is never reloaded:
+        final long lastModified = new File(fileName).lastModified();
+
+        CachedPackager cached = packagers.get(fileName);
+        if (cached == null || cached.lastModified != lastModified) {
+            synchronized (packagers) { // parse each file only once, even if many threads start at the same time
+                cached = packagers.get(fileName);
+                if (cached == null || cached.lastModified != lastModified) {
+                    log.debug("Loading packager from '{}'", fileName);
+                    cached = new CachedPackager(lastModified, new CachingGenericPackager(fileName));
+                    packagers.put(fileName, cached);
+                }
+            }
+        }
+        return cached.packager;
+    }
+
+    public static void clear() {
+        packagers.clear();
+    }
+}
@@ -0,0 +1,75 @@
+package nz.co.breakpoint.jmeter.iso8583;
+
+import java.util.*;
+import static nz.co.breakpoint.jmeter.iso8583.ISO8583TestElement.DELIMITER_REGEX;
+
+/** Determines whether a response code indicates success, as per a specification like
+ * <code>00,08,10</code> (a list of codes), <code>00-05,10</code> (including ranges)
+ * or <code>0810=00 0110=00,08,10</code> (per response MTI).
+ * <br>
+ * Codes (and ranges) that follow an MTI apply to responses with that MTI only (until the next MTI),
+ * whereas codes that don't follow any MTI (i.e. that precede the first one) apply to responses whose MTI is not listed.
+ * So responses with an MTI that is not listed fail unless such default codes are given, as with a plain list of codes.
+ * An MTI without codes (e.g. <code>0810=</code>) accepts any code.
+ * <br>
+ * The specification is parsed only once, so that matching is a lookup (plus a comparison per range, if any).
+ */
+public class ResponseCodeMatcher {
+
+    protected static class Rule {
+        final Set<String> codes = new HashSet<>();
+        final List<String[]> ranges = new ArrayList<>(); // inclusive lower and upper bounds
+
+        void add(String token) {
+            final int dash = token.indexOf('-');
+            if (dash > 0 && dash < token.length() - 1) {
+                ranges.add(new String[]{token.substring(0, dash), token.substring(dash + 1)});
+            } else {
+                codes.add(token);
+            }
+        }
+
+        boolean isEmpty() {
+            return codes.isEmpty() && ranges.isEmpty();
+        }
+
+        boolean matches(String rc) {
+            if (rc == null) return false;
+            if (codes.contains(rc)) return true;
+            for (String[] range : ranges) {
+                if (rc.length() == range[0].length() && rc.compareTo(range[0]) >= 0 && rc.compareTo(range[1]) <= 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    protected final String spec;
+    protected final Rule defaultRule = new Rule();
+    protected final Map<String, Rule> rulesByMTI = new HashMap<>();
+
+    public ResponseCodeMatcher(String spec) {
+        this.spec = spec;
+        Rule current = defaultRule;
+        for (String token : spec.trim().split(DELIMITER_REGEX)) {
+            final int equals = token.indexOf('=');
+            if (equals >= 0) {
+                current = rulesByMTI.computeIfAbsent(token.substring(0, equals), mti -> new Rule());
+                token = token.substring(equals + 1);
+            }
+            if (!token.isEmpty()) {
+                current.add(token);
+            }
+        }
+    }
+
+    public String getSpec() {
+        return spec;
+    }
+
+    public boolean matches(String mti, String rc) {
+        final Rule rule = mti != null ? rulesByMTI.get(mti) : null;
+        return rule != null ? rule.isEmpty() || rule.matches(rc) : defaultRule.matches(rc);
+    }
+}
@@ -1,6 +1,10 @@
 package nz.co.breakpoint.jmeter.iso8583;
 
+import java.security.GeneralSecurityException;
 import java.security.Key;
+import java.security.Provider;
+import java.security.Security;
+import java.util.Map;
 import javax.crypto.spec.SecretKeySpec;
 import org.apache.jmeter.util.JMeterUtils;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
@@ -15,12 +19,39 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import static nz.co.breakpoint.jmeter.iso8583.ISO8583TestElement.KSN_DESCRIPTOR;
 
-/** Adapter for jPOS JCESecurityModule with convenience wrapper methods
+/** Adapter for jPOS JCESecurityModule with convenience wrapper methods.
+ * <br>
+ * Initialization (generating the LMKs) is relatively expensive, so all test elements and functions should use the
+ * {@link #getInstance() shared instance}, which is thread-safe.
  */
 public class SecurityModule extends JCESecurityModule {
 
     private static final Logger log = LoggerFactory.getLogger(SecurityModule.class);
 
+    // Lazily initialized on first use:
+    private static class InstanceHolder {
+        static final SecurityModule instance = new SecurityModule();
+    }
+
+    public static SecurityModule getInstance() {
+        return InstanceHolder.instance;
+    }
+
+    public static final int KEY_CACHE_SIZE = 10000;
+
+    // Shared by all instances, so DUKPT keys derived in one thread can be reused by others:
+    protected static final DUKPTKeyCache dukptKeys = new DUKPTKeyCache();
+
+    /* Key objects are cached by type and hex value, so keys that are used repeatedly (e.g. per-card keys from CSV files)
+     * need not be parsed and constructed for every sample.
+     * Secure keys are encrypted under this instance's LMK, so can't be shared with other instances.
+     * Both are shared by all threads that use the same instance.
+     */
+    protected final Map<String, Key> clearKeys = LRUMap.synchronizedLRUMap(KEY_CACHE_SIZE);
+    protected final Map<String, SecureDESKey> secureKeys = LRUMap.synchronizedLRUMap(KEY_CACHE_SIZE);
+    // ICC Master Keys only depend on the card (and issuer master key), not on the transaction:
+    protected final Map<String, Key> iccMasterKeys = LRUMap.synchronizedLRUMap(KEY_CACHE_SIZE);
+
     public SecurityModule() {
         super();
         Configuration cfg = new SimpleConfiguration();
@@ -31,10 +62,37 @@ public class SecurityModule extends JCESecurityModule {
         } catch (ConfigurationException shouldNotHappen) { // config is correct (unless BC is missing)
             shouldNotHappen.printStackTrace();
         }
+        // Provider was registered by the default JCEHandler:
+        Provider provider = Security.getProvider(BouncyCastleProvider.PROVIDER_NAME);
+        this.jceHandler = new CachingJCEHandler(provider != null ? provider : new BouncyCastleProvider());
     }
 
     protected Key formDESKey(String hex) {
-        return new SecretKeySpec(ISOUtil.hex2byte(hex), hex.length() == 16 ? "DES" : "DESede");
+        return getClearKey(hex, hex.length() == 16 ? "DES" : "DESede");
+    }
+
+    /** Returns the same Key instance for the same value and algorithm (as long as it is cached),
+     * which also avoids JCEHandler creating a new MAC engine for every MAC calculation, as it compares keys by reference:
+     * https://github.com/jpos/jPOS/blob/v2_1_10/jpos/src/main/java/org/jpos/security/jceadapter/JCEHandler.java#L442
+     */
+    public Key getClearKey(String hex, String algorithm) {
+        final String cacheKey = algorithm + ":" + hex;
+        Key key = clearKeys.get(cacheKey);
+        if (key == null) {
+            key = new SecretKeySpec(ISOUtil.hex2byte(hex), algorithm);
+            clearKeys.put(cacheKey, key);
+        }
+        return key;
+    }
+
+    public SecureDESKey getSecureKey(short length, String type, String hex) throws SMException {
+        final String cacheKey = type + ":" + hex;
+        SecureDESKey key = secureKeys.get(cacheKey);
+        if (key == null) {
+            key = formKEYfromClearComponents(length, type, hex);
+            secureKeys.put(cacheKey, key);
+        }
+        return key;
     }
 
     public String encryptPINBlock(byte[] clearPinBlock, Key clearPinKey) throws JCEHandlerException {
@@ -45,11 +103,19 @@ public class SecurityModule extends JCESecurityModule {
         return ISOUtil.byte2hex(this.jceHandler.generateMAC(packedMsg, clearMacKey, macAlgorithm));
     }
 
+    /** Calculates the MAC over the first part of the packed message (without copying it) into the given buffer.
+     * @return the number of MAC bytes written
+     */
+    public int generateMAC(byte[] packedMsg, int length, Key clearMacKey, String macAlgorithm, byte[] mac)
+            throws JCEHandlerException {
+        return ((CachingJCEHandler) this.jceHandler).generateMAC(packedMsg, 0, length, clearMacKey, macAlgorithm, mac, 0);
+    }
+
     public String calculateARQC(MKDMethod mkdm, SKDMethod skdm, String clearMKAC,
             String accountNo, String accntSeqNo, String atc, String upn, String transData) {
         log.debug("ARQC input '{}'", transData);
         try {
-            SecureDESKey mkac = formKEYfromClearComponents(LENGTH_DES3_2KEY, TYPE_MK_AC, clearMKAC);
+            SecureDESKey mkac = getSecureKey(LENGTH_DES3_2KEY, TYPE_MK_AC, clearMKAC);
             return ISOUtil.byte2hex(calculateARQC(mkdm, skdm, mkac, accountNo, accntSeqNo,
                 ISOUtil.hex2byte(atc), ISOUtil.hex2byte(upn), ISOUtil.hex2byte(transData)));
         } catch (SMException e) {
@@ -58,6 +124,27 @@ public class SecurityModule extends JCESecurityModule {
         return "";
     }
 
+    /** Derives the card's ICC Master Keys (for both derivation methods) so they need not be derived again
+     * for subsequent ARQC calculations (as long as they are cached).
+     */
+    public void prepareARQC(String clearMKAC, String accountNo, String accntSeqNo) {
+        for (MKDMethod mkdm : MKDMethod.values()) {
+            // Common session key derivation, as it supports both master key derivation methods:
+            calculateARQC(mkdm, SKDMethod.EMV_CSKD, clearMKAC, accountNo, accntSeqNo, "0000", "00000000", "0000000000000000");
+        }
+    }
+
+    @Override
+    protected Key deriveICCMasterKey(Key imk, byte[] panpsn) throws JCEHandlerException {
+        final String cacheKey = ISOUtil.byte2hex(imk.getEncoded()) + ":" + ISOUtil.byte2hex(panpsn);
+        Key key = iccMasterKeys.get(cacheKey);
+        if (key == null) {
+            key = super.deriveICCMasterKey(imk, panpsn);
+            iccMasterKeys.put(cacheKey, key);
+        }
+        return key;
+    }
+
     protected KeySerialNumber parseKSN(String ksn) {
         final String ksnDescriptor = JMeterUtils.getPropDefault(KSN_DESCRIPTOR, "6-5-5");
 
@@ -80,15 +167,17 @@ public class SecurityModule extends JCESecurityModule {
     public String encryptPINBlock(byte[] clearPINBlock, String clearBDK, String keySerialNumber) {
         try {
             KeySerialNumber ksn = parseKSN(keySerialNumber);
-            SecureDESKey bdk = formKEYfromClearComponents(LENGTH_DES3_2KEY, TYPE_BDK, clearBDK);
-
-            // https://github.com/jpos/jPOS/blob/v2_1_10/jpos/src/main/java/org/jpos/security/jceadapter/JCESecurityModule.java#L2455-L2456
-            byte[] derivedKey = calculateDerivedKey(ksn, bdk, true, false);
-            log.debug("UDK={}", ISOUtil.byte2hex(derivedKey));
-
+            if (ksn == null) return "";
+
+            // Same as https://github.com/jpos/jPOS/blob/v2_1_10/jpos/src/main/java/org/jpos/security/jceadapter/JCESecurityModule.java#L2455-L2456
+            // but without deriving the IPEK and all intermediate keys for every transaction:
+            byte[] derivedKey = dukptKeys.getPINKey(clearBDK, ksn);
+            if (log.isDebugEnabled()) {
+                log.debug("UDK={}", ISOUtil.byte2hex(derivedKey));
+            }
             byte[] translatedPINBlock = specialEncrypt(clearPINBlock, derivedKey);
             return ISOUtil.byte2hex(translatedPINBlock);
-        } catch (SMException e) {
+        } catch (SMException | GeneralSecurityException e) {
             log.error("DUKPT PIN Block encryption failed {}", e.toString(), e);
         }
         return "";
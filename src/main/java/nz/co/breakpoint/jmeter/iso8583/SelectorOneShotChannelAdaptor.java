@@ -0,0 +1,489 @@
+package nz.co.breakpoint.jmeter.iso8583;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import org.jdom2.Element;
+import org.jpos.core.ConfigurationException;
+import org.jpos.core.Environment;
+import org.jpos.iso.ISOException;
+import org.jpos.iso.ISOMsg;
+import org.jpos.iso.ISOPackager;
+import org.jpos.q2.QBeanSupport;
+import org.jpos.q2.QFactory;
+import org.jpos.space.LocalSpace;
+import org.jpos.space.Space;
+import org.jpos.space.SpaceFactory;
+import org.jpos.space.SpaceListener;
+import org.jpos.space.SpaceUtil;
+import org.jpos.util.NameRegistrar;
+
+/** Sends every request from the <i>in</i> queue over a new connection and puts the response into the <i>out</i> queue
+ * (like OneShotChannelAdaptorMK2), but handles all connections on a single thread via an NIO Selector,
+ * rather than with a thread and blocking I/O per connection.
+ * So a large number of short-lived connections (e.g. simulated terminals) do not need as many threads.
+ * <br>
+ * The channel must be a {@link DirectBufferChannel}, whose configuration (host, port, timeouts, header,
+ * length prefix, buffer size and socket options) is used for framing the messages.
+ * Outgoing filters and socket factories (SSL) are not supported, as the channel itself is not used for sending.
+ * <br>
+ * Elements (as OneShotChannelAdaptorMK2): <i>channel</i>, <i>space</i>, <i>in</i>, <i>out</i>
+ * and <i>max-connections</i> (concurrent connections; further requests wait in the queue).
+ * Channel property <i>prewarm</i>: Number of spare connections to keep open (default 0), so requests don't have to
+ * wait for a connection to be established. These count towards <i>max-connections</i>.
+ * <br>
+ * The time to connect (for requests that were not sent over a spare connection) is recorded with the
+ * request message if it is a {@link CachingISOMsg}.
+ * <br>
+ * The adaptor is ready (see {@link #isConnected()}) once a connection to the server succeeded: a spare connection,
+ * or otherwise one that is opened and closed again just to check the server can be reached.
+ * After a number of consecutive failed connection attempts it is no longer ready, until a connection succeeds again.
+ */
+public class SelectorOneShotChannelAdaptor extends QBeanSupport implements SpaceListener<String, Object>, Runnable {
+
+    protected static final long CHECK_INTERVAL = 100; // ms between checks for expired connections
+    protected static final long PREWARM_RETRY_DELAY = 1000; // ms after a spare connection failed to connect
+    protected static final int MAX_CONNECT_FAILURES = 3; // consecutive ones, before no longer being ready
+
+    protected Space<String, Object> sp;
+    protected String in, out, ready;
+    protected int maxConnections, prewarm;
+    protected DirectBufferChannel channel; // not connected, only configured
+    protected ISOPackager packager;
+    protected InetSocketAddress address;
+    protected Selector selector;
+    protected Thread thread;
+
+    // Only accessed by the selector thread:
+    protected final Deque<Connection> spare = new ArrayDeque<>(); // connected, without a request
+    protected int open, warming; // all connections, and spare ones still connecting
+    protected long nextCheck, nextPrewarm;
+    protected boolean connected; // whether the ready entry is in the space
+    protected int connectFailures; // consecutive ones
+    protected Connection check; // opened without spare connections, until one succeeded
+    protected long connects, connectNanos, requests, responses, failures;
+
+    @Override
+    @SuppressWarnings("unchecked")
+    protected void initService() throws Exception {
+        final Element persist = getPersist();
+        final Element channelElement = persist.getChild("channel");
+        if (channelElement == null) {
+            throw new ConfigurationException("channel element missing");
+        }
+        final String spaceName = persist.getChildTextTrim("space");
+        sp = spaceName == null || spaceName.isEmpty() ? SpaceFactory.getSpace() : SpaceFactory.getSpace(spaceName);
+        if (!(sp instanceof LocalSpace)) {
+            throw new ConfigurationException("Space "+spaceName+" does not support listeners");
+        }
+        in = Environment.get(persist.getChildTextTrim("in"));
+        out = Environment.get(persist.getChildTextTrim("out"));
+        ready = getName()+".ready";
+        final String max = persist.getChildTextTrim("max-connections");
+        maxConnections = max == null || max.isEmpty() ? 0 : Integer.parseInt(max);
+
+        channel = newChannel(channelElement, getFactory());
+        packager = channel.getPackager();
+        prewarm = getFactory().getConfiguration(channelElement).getInt("prewarm", 0);
+        NameRegistrar.register(getName(), this);
+    }
+
+    // As OneShotChannelAdaptorMK2 creates its channels
+    protected DirectBufferChannel newChannel(Element e, QFactory f) throws ConfigurationException {
+        final String channelClass = e.getAttributeValue("class");
+        final Object instance = f.newInstance(channelClass);
+        if (!(instance instanceof DirectBufferChannel)) {
+            throw new ConfigurationException("Channel class "+channelClass+" is not a "+DirectBufferChannel.class.getName());
+        }
+        final DirectBufferChannel c = (DirectBufferChannel) instance;
+        final String packagerClass = e.getAttributeValue("packager");
+        if (packagerClass != null) {
+            ISOPackager p = f.newInstance(packagerClass);
+            c.setPackager(p);
+            f.setConfiguration(p, e);
+        }
+        QFactory.invoke(c, "setHeader", e.getAttributeValue("header"));
+        f.setLogger(c, e);
+        f.setConfiguration(c, e);
+        return c;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    protected void startService() throws Exception {
+        selector = Selector.open();
+        thread = new Thread(this, getName());
+        thread.setDaemon(true);
+        thread.start();
+        ((LocalSpace<String, Object>) sp).addListener(in, this);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    protected void stopService() throws Exception {
+        ((LocalSpace<String, Object>) sp).removeListener(in, this);
+        selector.wakeup();
+        thread.join(TimeUnit.SECONDS.toMillis(5));
+        SpaceUtil.wipe(sp, ready); // after the thread ended, so it is not put back
+        getLog().info(String.format("connects=%d (avg %.1f ms) requests=%d responses=%d failures=%d",
+            connects, connects == 0 ? 0 : connectNanos / 1e6 / connects, requests, responses, failures));
+    }
+
+    @Override
+    protected void destroyService() {
+        NameRegistrar.unregister(getName());
+    }
+
+    public boolean isConnected() {
+        return sp != null && sp.rdp(ready) != null;
+    }
+
+    // Called by the thread that queued a request
+    @Override
+    public void notify(String key, Object value) {
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        while (running()) {
+            try {
+                selector.select(CHECK_INTERVAL);
+                for (Iterator<SelectionKey> it = selector.selectedKeys().iterator(); it.hasNext(); ) {
+                    final SelectionKey key = it.next();
+                    it.remove();
+                    handle((Connection) key.attachment(), key);
+                }
+                dispatch();
+                prewarm();
+                checkConnection();
+                expire();
+            } catch (IOException | RuntimeException e) {
+                getLog().error("Selector failure", e);
+            }
+        }
+        for (SelectionKey key : selector.keys()) {
+            close((Connection) key.attachment());
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            getLog().warn("Failed to close selector", e);
+        }
+    }
+
+    protected void handle(Connection c, SelectionKey key) {
+        try {
+            if (!key.isValid()) return;
+            if (key.isConnectable()) {
+                c.finishConnect();
+            } else if (c.request == null) { // spare connection closed by the peer (or unexpected data)
+                close(c);
+            } else if (key.isWritable()) {
+                c.write();
+            } else if (key.isReadable()) {
+                c.read();
+            }
+        } catch (IOException | ISOException e) {
+            fail(c, e);
+        }
+    }
+
+    // Takes queued requests as long as there are connections for them
+    protected void dispatch() {
+        while (!spare.isEmpty() || maxConnections <= 0 || open < maxConnections) {
+            final Object o = sp.inp(in);
+            if (o == null) return;
+            if (!(o instanceof ISOMsg)) continue;
+
+            ++requests;
+            Connection c = spare.poll();
+            try {
+                if (c != null) {
+                    c.idle = false;
+                    c.start((ISOMsg) o);
+                } else {
+                    c = open();
+                    c.start((ISOMsg) o);
+                    c.connect();
+                }
+            } catch (IOException | ISOException e) {
+                fail(c, e);
+            }
+        }
+    }
+
+    protected void prewarm() {
+        if (prewarm <= 0 || spare.size() + warming >= prewarm || System.currentTimeMillis() < nextPrewarm) return;
+
+        while (spare.size() + warming < prewarm && (maxConnections <= 0 || open < maxConnections)) {
+            Connection c = null;
+            try {
+                c = open();
+                c.prewarming = true;
+                ++warming;
+                c.connect();
+            } catch (IOException e) {
+                fail(c, e);
+                return;
+            }
+        }
+    }
+
+    // Without spare connections, a connection is opened (and closed again) to find out whether the server can be reached
+    protected void checkConnection() {
+        if (connected || prewarm > 0 || check != null || System.currentTimeMillis() < nextPrewarm) return;
+        if (maxConnections > 0 && open >= maxConnections) return; // requests in progress will tell
+
+        try {
+            check = open();
+            check.connect();
+        } catch (IOException e) {
+            fail(check, e);
+        }
+    }
+
+    protected void connectSucceeded() {
+        connectFailures = 0;
+        if (!connected) {
+            connected = true;
+            sp.put(ready, new Date());
+        }
+    }
+
+    protected void connectFailed() {
+        nextPrewarm = System.currentTimeMillis() + PREWARM_RETRY_DELAY;
+        if (++connectFailures >= MAX_CONNECT_FAILURES && connected) {
+            connected = false;
+            SpaceUtil.wipe(sp, ready);
+            getLog().warn("Not ready after "+connectFailures+" failed connection attempts");
+        }
+    }
+
+    // Closes connections that took too long to connect or respond
+    protected void expire() {
+        final long now = System.nanoTime();
+        if (now - nextCheck < 0) return;
+        nextCheck = now + TimeUnit.MILLISECONDS.toNanos(CHECK_INTERVAL);
+
+        for (SelectionKey key : selector.keys()) {
+            final Connection c = (Connection) key.attachment();
+            if (!c.closed && c.deadline != 0 && now - c.deadline >= 0) {
+                fail(c, new IOException(c.socket.isConnected() ? "Read timed out" : "Connect timed out"));
+            }
+        }
+    }
+
+    // Opens a (not yet connected) socket and registers it with the selector
+    protected Connection open() throws IOException {
+        if (address == null || address.isUnresolved()) { // resolved once rather than for every connection
+            address = new InetSocketAddress(channel.getHost(), channel.getPort());
+        }
+        final SocketChannel socket = SocketChannel.open();
+        try {
+            socket.configureBlocking(false);
+            socket.setOption(StandardSocketOptions.SO_REUSEADDR, channel.isReuseAddress());
+            socket.setOption(StandardSocketOptions.SO_LINGER, channel.isSoLingerOn() ? channel.getSoLingerSeconds() : -1);
+            final Connection c = new Connection(socket);
+            c.key = socket.register(selector, 0, c);
+            ++open;
+            return c;
+        } catch (IOException | RuntimeException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    protected void fail(Connection c, Exception e) {
+        if (c == null || !c.socket.isConnected()) {
+            connectFailed();
+        }
+        if (c != null && c.request == null) { // spare or check connection
+            if (c.prewarming) {
+                getLog().warn("Failed to open spare connection: "+e);
+            } else if (c == check) {
+                getLog().warn("Failed to connect: "+e);
+            }
+        } else {
+            ++failures;
+            getLog().warn("Request failed: "+e);
+        }
+        if (c != null) close(c);
+    }
+
+    protected void close(Connection c) {
+        if (c.closed) return;
+        c.closed = true;
+        --open;
+        if (c.prewarming) --warming;
+        if (c.idle) spare.remove(c);
+        if (c == check) check = null;
+        if (c.buffer != null) {
+            DirectBufferChannel.releaseBuffer(c.buffer);
+            c.buffer = null;
+        }
+        try {
+            c.socket.close(); // also cancels the key
+        } catch (IOException e) {
+            getLog().warn("Failed to close connection: "+e);
+        }
+    }
+
+    protected static long deadline(int timeoutMillis) {
+        return timeoutMillis <= 0 ? 0 : System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis) | 1; // not 0
+    }
+
+    /** State of a connection, which is attached to its SelectionKey: connecting, spare (connected without a request),
+     * writing the request, or reading the response.
+     */
+    protected class Connection {
+        final SocketChannel socket;
+        SelectionKey key;
+        boolean closed, prewarming, idle; // idle: in the spare connections
+        long connectStart, deadline; // System.nanoTime() values, 0 if none
+        ISOMsg request;
+        ByteBuffer buffer; // for writing the request, then reading the response
+        byte[] header, image, frame; // outgoing header and message, incoming frame (header and message)
+        int length, sent, received, prefixReceived; // length is excluding the prefix
+
+        Connection(SocketChannel socket) {
+            this.socket = socket;
+        }
+
+        void connect() throws IOException {
+            connectStart = System.nanoTime();
+            deadline = deadline(channel.getConnectTimeout());
+            if (socket.connect(address)) {
+                connected();
+            } else {
+                key.interestOps(SelectionKey.OP_CONNECT);
+            }
+        }
+
+        void finishConnect() throws IOException {
+            if (socket.finishConnect()) connected();
+        }
+
+        void connected() throws IOException {
+            connectSucceeded();
+            if (request != null) {
+                recordConnect();
+                write();
+                return;
+            }
+            if (this == check) {
+                close(this);
+                return;
+            }
+            prewarming = false;
+            --warming;
+            idle = true;
+            spare.add(this);
+            deadline = 0; // stays open until used (or closed by the peer)
+            key.interestOps(SelectionKey.OP_READ);
+        }
+
+        void recordConnect() {
+            final long elapsed = System.nanoTime() - connectStart;
+            ++connects;
+            connectNanos += elapsed;
+            if (request instanceof CachingISOMsg) ((CachingISOMsg) request).setConnectTime(elapsed);
+        }
+
+        void start(ISOMsg m) throws IOException, ISOException {
+            request = m;
+            m.setPackager(packager);
+            image = m.pack();
+            header = channel.getOutgoingHeader(m);
+            length = image.length + (header != null ? header.length : 0);
+            channel.checkMessageLength(length);
+            buffer = channel.acquireBuffer();
+            if (socket.isConnected()) write(); // spare connection
+        }
+
+        // Fills the buffer with the frame's next bytes: length prefix, header, message
+        void fill() {
+            final int lengthSize = channel.getLengthSize(), headerLength = header != null ? header.length : 0;
+            final int total = lengthSize + length;
+            while (buffer.hasRemaining() && sent < total) {
+                int i = sent;
+                if (i < lengthSize) {
+                    buffer.put((byte) channel.lengthByte(length, i));
+                    ++sent;
+                    continue;
+                }
+                final byte[] part = (i -= lengthSize) < headerLength ? header : image;
+                if (part == image) i -= headerLength;
+                final int n = Math.min(buffer.remaining(), part.length - i);
+                buffer.put(part, i, n);
+                sent += n;
+            }
+        }
+
+        void write() throws IOException {
+            deadline = deadline(channel.getTimeout());
+            while (true) {
+                fill();
+                ((Buffer) buffer).flip(); // cast for Java 8 compatibility
+                socket.write(buffer);
+                final boolean drained = !buffer.hasRemaining();
+                buffer.compact();
+                if (!drained) { // socket send buffer full
+                    key.interestOps(SelectionKey.OP_WRITE);
+                    return;
+                }
+                if (sent == channel.getLengthSize() + length) break;
+            }
+            ((Buffer) buffer).clear();
+            length = 0;
+            key.interestOps(SelectionKey.OP_READ);
+        }
+
+        void read() throws IOException, ISOException {
+            if (socket.read(buffer) < 0) throw new EOFException("Connection closed by peer");
+            ((Buffer) buffer).flip();
+            try {
+                final int lengthSize = channel.getLengthSize();
+                while (frame == null && buffer.hasRemaining()) {
+                    length = channel.addLengthByte(length, buffer.get() & 0xFF);
+                    if (++prefixReceived < lengthSize) continue;
+                    channel.checkIncomingLength(length);
+                    if (length > 0) {
+                        frame = new byte[length];
+                    }
+                    prefixReceived = 0; // skips zero lengths (keep-alives)
+                    length = 0;
+                }
+                if (frame == null) return;
+                final int n = Math.min(buffer.remaining(), frame.length - received);
+                buffer.get(frame, received, n);
+                received += n;
+            } finally {
+                buffer.compact();
+            }
+            if (received == frame.length) complete();
+        }
+
+        void complete() throws ISOException {
+            final int headerLength = Math.min(channel.getIncomingHeaderLength(), frame.length);
+            ISOMsg response = packager.createISOMsg();
+            response.setPackager(packager);
+            response.setDirection(ISOMsg.INCOMING);
+            if (headerLength > 0) {
+                response.setHeader(Arrays.copyOf(frame, headerLength));
+            }
+            response.unpack(headerLength == 0 ? frame : Arrays.copyOfRange(frame, headerLength, frame.length));
+            ++responses;
+            close(this);
+            sp.out(out, response);
+        }
+    }
+}
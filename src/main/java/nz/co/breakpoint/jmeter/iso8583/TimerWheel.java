@@ -0,0 +1,117 @@
+package nz.co.breakpoint.jmeter.iso8583;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/** Hashed timer wheel that runs delayed tasks on a single (daemon) thread, rather than having a sleeping thread
+ * per delayed task, or a priority queue (as in ScheduledThreadPoolExecutor) that needs to be reordered for every task.
+ * <br>
+ * Scheduling a task is a non-blocking queue insert. The wheel thread moves new tasks into the bucket for their
+ * deadline tick and runs the tasks of the current bucket that are due, once per tick.
+ * Tasks run no earlier than their delay, and up to one tick later. They should be short, as they delay each other.
+ * While there are no tasks, the thread waits without ticking.
+ */
+public class TimerWheel {
+
+    private static final Logger log = LoggerFactory.getLogger(TimerWheel.class);
+
+    public static final int DEFAULT_TICK_MILLIS = 1, DEFAULT_WHEEL_SIZE = 512;
+
+    protected static class Timeout {
+        final Runnable task;
+        final long deadline; // tick
+
+        Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+    }
+
+    protected final long tickNanos;
+    protected final Queue<Timeout>[] buckets; // only accessed by the wheel thread
+    protected final int mask;
+    protected final Queue<Timeout> pending = new ConcurrentLinkedQueue<>();
+    protected final long startTime = System.nanoTime();
+    protected final Thread thread;
+    protected int scheduled; // number of tasks in buckets, only accessed by the wheel thread
+    protected volatile boolean stopped;
+
+    public TimerWheel() {
+        this(DEFAULT_TICK_MILLIS, DEFAULT_WHEEL_SIZE);
+    }
+
+    /** @param wheelSize number of buckets (rounded up to a power of 2) */
+    @SuppressWarnings("unchecked")
+    public TimerWheel(long tickMillis, int wheelSize) {
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, tickMillis));
+        final int size = Integer.highestOneBit(Math.max(1, wheelSize - 1)) << 1;
+        this.buckets = new Queue[size];
+        for (int i = 0; i < size; ++i) {
+            buckets[i] = new ArrayDeque<>();
+        }
+        this.mask = size - 1;
+        this.thread = new Thread(this::run, TimerWheel.class.getSimpleName());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /** Runs the task on the wheel thread after the given delay. */
+    public void schedule(Runnable task, long delayMillis) {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Math.max(0, delayMillis)) - startTime;
+        pending.add(new Timeout(task, (deadline + tickNanos - 1) / tickNanos)); // round up
+        LockSupport.unpark(thread);
+    }
+
+    /** Stops the wheel thread. Tasks that have not run yet are discarded. */
+    public void stop() {
+        stopped = true;
+        LockSupport.unpark(thread);
+    }
+
+    public boolean isRunning() {
+        return thread.isAlive();
+    }
+
+    protected void run() {
+        long tick = 0;
+        while (!stopped && !Thread.currentThread().isInterrupted()) {
+            if (scheduled == 0 && pending.isEmpty()) {
+                LockSupport.park(this);
+                tick = Math.max(tick, (System.nanoTime() - startTime) / tickNanos); // skip idle ticks
+            } else {
+                final long sleep = (tick + 1) * tickNanos - (System.nanoTime() - startTime);
+                if (sleep > 0) {
+                    LockSupport.parkNanos(this, sleep);
+                    continue; // may have been woken early by a new task
+                }
+                ++tick;
+            }
+            for (Timeout timeout; (timeout = pending.poll()) != null; ++scheduled) {
+                buckets[(int) (Math.max(timeout.deadline, tick) & mask)].add(timeout);
+            }
+            expire(tick);
+        }
+    }
+
+    // Runs the tasks in the tick's bucket that are due (other tasks in the bucket are due in a later round)
+    protected void expire(long tick) {
+        for (Iterator<Timeout> it = buckets[(int) (tick & mask)].iterator(); it.hasNext(); ) {
+            Timeout timeout = it.next();
+            if (timeout.deadline <= tick) {
+                it.remove();
+                --scheduled;
+                try {
+                    timeout.task.run();
+                } catch (RuntimeException e) {
+                    log.error("Timer task failed", e);
+                }
+            }
+        }
+    }
+}
@@ -14,7 +14,7 @@ import java.util.stream.Collectors;
 
 public abstract class AbstractCryptoFunction extends AbstractFunction {
     protected CompoundVariable[] values;
-    protected SecurityModule securityModule = new SecurityModule();
+    protected SecurityModule securityModule = SecurityModule.getInstance();
     protected List<String> argumentDesc;
 
     public AbstractCryptoFunction() {
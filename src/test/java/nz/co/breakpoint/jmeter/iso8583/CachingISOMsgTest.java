@@ -0,0 +1,84 @@
+package nz.co.breakpoint.jmeter.iso8583;
+
+import org.jpos.iso.ISOException;
+import org.jpos.iso.ISOMsg;
+import org.jpos.iso.ISOPackager;
+import org.jpos.iso.ISOUtil;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class CachingISOMsgTest extends ISO8583TestBase {
+
+    ISOPackager packager;
+    CachingISOMsg msg;
+
+    @Before
+    public void setup() throws ISOException {
+        packager = PackagerRegistry.getPackager(defaultPackagerFile);
+        msg = (CachingISOMsg) packager.createISOMsg();
+        msg.setPackager(packager);
+        msg.setMTI("0800");
+        msg.set(11, "012345");
+        msg.set(41, "TERMID01");
+    }
+
+    @Test
+    public void shouldPackOnlyOnce() throws ISOException {
+        assertFalse(msg.isPacked());
+        byte[] packed = msg.pack();
+        assertTrue(msg.isPacked());
+        assertSame(packed, msg.pack());
+    }
+
+    @Test
+    public void shouldRepackWhenModified() throws ISOException {
+        byte[] packed = msg.pack();
+        msg.set("41", "TERMID02");
+        assertFalse(msg.isPacked());
+        assertNotSame(packed, msg.pack());
+        msg.unset(41);
+        assertFalse(msg.isPacked());
+        msg.pack();
+        msg.setResponseMTI();
+        assertFalse(msg.isPacked());
+    }
+
+    @Test
+    public void shouldKeepImageForEquivalentPackager() throws ISOException {
+        byte[] packed = msg.pack();
+        msg.setPackager(new CachingGenericPackager(defaultPackagerFile));
+        assertSame(packed, msg.pack());
+        msg.setPackager(xmlPackager);
+        assertFalse(msg.isPacked());
+    }
+
+    @Test
+    public void shouldKeepReceivedImage() throws ISOException {
+        byte[] packed = msg.pack().clone();
+        ISOMsg received = packager.createISOMsg();
+        received.setPackager(packager);
+        received.unpack(packed);
+        assertSame(packed, received.pack());
+        assertEquals("012345", received.getString(11));
+    }
+
+    @Test
+    public void shouldPatchLastBinaryField() throws ISOException {
+        msg.set(64, new byte[8]);
+        byte[] packed = msg.pack();
+        byte[] mac = ISOUtil.hex2byte("0123456789ABCDEF");
+        msg.set(64, mac);
+        assertTrue(msg.isPacked());
+        assertSame(packed, msg.pack());
+        assertArrayEquals(mac, msg.getBytes(64));
+
+        ISOMsg expected = (ISOMsg) msg.clone();
+        expected.set(11, "012345"); // force repacking
+        assertArrayEquals(expected.pack(), packed);
+
+        msg.set(52, mac); // not the last field
+        assertFalse(msg.isPacked());
+    }
+}
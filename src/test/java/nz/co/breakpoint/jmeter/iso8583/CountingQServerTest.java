@@ -0,0 +1,36 @@
+package nz.co.breakpoint.jmeter.iso8583;
+
+import java.util.concurrent.TimeUnit;
+import org.jpos.iso.ISOUtil;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class CountingQServerTest {
+
+    @Test
+    public void shouldCountOutstandingRequests() {
+        CountingQServer.ConnectionCounters counters = new CountingQServer.ConnectionCounters(0);
+        counters.requestSent();
+        counters.requestSent();
+        assertEquals(2, counters.getOutstanding());
+        counters.responseReceived();
+        assertEquals(1, counters.getOutstanding());
+        counters.requestFailed();
+        assertEquals(0, counters.getOutstanding());
+        counters.responseReceived(); // unsolicited
+        assertEquals(0, counters.getOutstanding());
+    }
+
+    @Test
+    public void shouldExpireOutstandingRequests() {
+        CountingQServer.ConnectionCounters counters =
+            new CountingQServer.ConnectionCounters(TimeUnit.MILLISECONDS.toNanos(100));
+        counters.requestSent();
+        assertEquals(1, counters.getOutstanding());
+        ISOUtil.sleep(200);
+        counters.requestSent();
+        assertEquals(1, counters.getOutstanding());
+        counters.responseReceived(); // for the expired one, but not telling which
+        assertEquals(0, counters.getOutstanding());
+    }
+}
@@ -0,0 +1,49 @@
+package nz.co.breakpoint.jmeter.iso8583;
+
+import java.util.Random;
+import org.jpos.iso.ISOUtil;
+import org.jpos.security.KeySerialNumber;
+import org.jpos.security.SMAdapter;
+import org.jpos.security.SMException;
+import org.jpos.security.SecureDESKey;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class DUKPTKeyCacheTest extends ISO8583TestBase {
+
+    // Derives keys the way jPOS does:
+    static class ReferenceSecurityModule extends SecurityModule {
+        byte[] derivePINKey(String clearBDK, KeySerialNumber ksn) throws SMException {
+            SecureDESKey bdk = formKEYfromClearComponents(SMAdapter.LENGTH_DES3_2KEY, SMAdapter.TYPE_BDK, clearBDK);
+            return calculateDerivedKey(ksn, bdk, true, false);
+        }
+    }
+
+    ReferenceSecurityModule reference = new ReferenceSecurityModule();
+    DUKPTKeyCache instance = new DUKPTKeyCache(2);
+
+    void assertSameKey(String bdk, String ksn) throws Exception {
+        KeySerialNumber k = reference.parseKSN(ksn);
+        assertEquals(ksn, ISOUtil.byte2hex(reference.derivePINKey(bdk, k)), ISOUtil.byte2hex(instance.getPINKey(bdk, k)));
+    }
+
+    @Test
+    public void shouldDeriveSameKeysAsJCESecurityModule() throws Exception {
+        final String bdk = "0123456789ABCDEFFEDCBA9876543210";
+        for (int counter = 1; counter <= 300; ++counter) {
+            assertSameKey(bdk, String.format("9876543210E%05X", counter));
+        }
+        Random random = new Random(42);
+        for (int i = 0; i < 200; ++i) { // random jumps, alternating between devices and BDKs
+            assertSameKey(random.nextBoolean() ? bdk : DEFAULT_3DES_KEY,
+                String.format("98765432%02X%06X", random.nextInt(4), random.nextInt(0x200000)));
+        }
+        assertSameKey(bdk, "FFFF9876543210E00008"); // full length KSN
+        assertTrue(instance.devices.size() <= 2);
+    }
+
+    @Test(expected = java.security.GeneralSecurityException.class)
+    public void shouldRejectInvalidBDK() throws Exception {
+        instance.getPINKey(DEFAULT_DES_KEY, reference.parseKSN("9876543210E00001"));
+    }
+}
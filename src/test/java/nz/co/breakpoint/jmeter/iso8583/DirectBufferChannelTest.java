@@ -0,0 +1,167 @@
+package nz.co.breakpoint.jmeter.iso8583;
+
+import java.net.ServerSocket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.*;
+import org.jpos.core.SimpleConfiguration;
+import org.jpos.iso.BaseChannel;
+import org.jpos.iso.ISOMsg;
+import org.jpos.iso.ISOPackager;
+import org.jpos.iso.channel.ASCIIChannel;
+import org.jpos.iso.channel.NACChannel;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class DirectBufferChannelTest extends ISO8583TestBase {
+    ISOPackager packager;
+    ServerSocket serverSocket;
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    @Before
+    public void setup() throws Exception {
+        packager = PackagerRegistry.getPackager(defaultPackagerFile);
+        serverSocket = new ServerSocket(0);
+    }
+
+    @After
+    public void teardown() throws Exception {
+        executor.shutdownNow();
+        serverSocket.close();
+    }
+
+    DirectBufferChannel createChannel(String lengthPrefix, int bufferSize) throws Exception {
+        Properties props = new Properties();
+        props.setProperty("host", "localhost");
+        props.setProperty("port", String.valueOf(serverSocket.getLocalPort()));
+        props.setProperty("length-prefix", lengthPrefix);
+        props.setProperty("buffer-size", String.valueOf(bufferSize));
+        props.setProperty("timeout", "5000");
+        DirectBufferChannel channel = new DirectBufferChannel();
+        channel.setPackager(packager);
+        channel.setConfiguration(new SimpleConfiguration(props));
+        return channel;
+    }
+
+    // Peer that accepts one connection and echoes each message as a response
+    Future<Integer> echo(BaseChannel peer, int messages) {
+        return executor.submit(() -> {
+            peer.accept(serverSocket);
+            for (int i = 0; i < messages; ++i) {
+                ISOMsg msg = peer.receive();
+                msg.setResponseMTI();
+                msg.set(39, "00");
+                peer.send(msg);
+            }
+            return messages;
+        });
+    }
+
+    ISOMsg createRequest(String stan, String field35) throws Exception {
+        ISOMsg msg = new ISOMsg("0800");
+        msg.set(11, stan);
+        msg.set(41, "JMETER");
+        if (field35 != null) msg.set(35, field35);
+        return msg;
+    }
+
+    @Test
+    public void shouldExchangeMessagesWithASCIIChannel() throws Exception {
+        Future<Integer> peer = echo(new ASCIIChannel(packager), 2);
+        DirectBufferChannel channel = createChannel("ascii4", 16); // smaller than the messages
+        channel.connect();
+        try {
+            channel.send(createRequest("000001", null));
+            ISOMsg response = channel.receive();
+            assertEquals("0810", response.getMTI());
+            assertEquals("000001", response.getString(11));
+
+            String longValue = String.format("%037d", 42);
+            channel.send(createRequest("000002", longValue));
+            response = channel.receive();
+            assertEquals("000002", response.getString(11));
+            assertEquals(longValue, response.getString(35));
+            assertEquals(2, (int) peer.get(5, TimeUnit.SECONDS));
+        } finally {
+            channel.disconnect();
+        }
+    }
+
+    @Test
+    public void shouldExchangeMessagesWithNACChannel() throws Exception {
+        Future<Integer> peer = echo(new NACChannel(packager, null), 1);
+        DirectBufferChannel channel = createChannel("binary2", 1024);
+        channel.connect();
+        try {
+            channel.send(createRequest("000003", null));
+            ISOMsg response = channel.receive();
+            assertEquals("000003", response.getString(11));
+            assertEquals("00", response.getString(39));
+            assertEquals(1, (int) peer.get(5, TimeUnit.SECONDS));
+        } finally {
+            channel.disconnect();
+        }
+    }
+
+    @Test
+    public void shouldReuseBuffersOfDisconnectedChannels() throws Exception {
+        DirectBufferChannel.pools.clear();
+        echo(new ASCIIChannel(packager), 0);
+        DirectBufferChannel channel = createChannel("ascii4", 4096);
+        channel.connect();
+        channel.disconnect();
+        assertEquals(2, DirectBufferChannel.pools.get(4096).size());
+
+        echo(new ASCIIChannel(packager), 0);
+        channel.connect();
+        assertEquals(0, DirectBufferChannel.pools.get(4096).size());
+        channel.disconnect();
+        assertEquals(2, DirectBufferChannel.pools.get(4096).size());
+
+        echo(new ASCIIChannel(packager), 0);
+        DirectBufferChannel other = createChannel("ascii4", 2048); // must not discard the other size's buffers
+        other.connect();
+        other.disconnect();
+        assertEquals(2, DirectBufferChannel.pools.get(4096).size());
+        assertEquals(2, DirectBufferChannel.pools.get(2048).size());
+    }
+
+    @Test
+    public void shouldLimitPooledBuffers() throws Exception {
+        DirectBufferChannel.pools.clear();
+        DirectBufferChannel channel = createChannel("ascii4", 512);
+        channel.bufferPoolSize = 3;
+        List<ByteBuffer> buffers = new ArrayList<>();
+        for (int i = 0; i < 5; ++i) {
+            buffers.add(channel.acquireBuffer());
+        }
+        buffers.forEach(DirectBufferChannel::releaseBuffer);
+        assertEquals(3, DirectBufferChannel.pools.get(512).size());
+        assertSame(buffers.get(0), channel.acquireBuffer());
+    }
+
+    @Test
+    public void shouldTimeOutReading() throws Exception {
+        echo(new ASCIIChannel(packager), 0);
+        DirectBufferChannel channel = createChannel("ascii4", 1024);
+        channel.setTimeout(200);
+        channel.connect();
+        try {
+            long start = System.currentTimeMillis();
+            try {
+                channel.receive();
+                fail("Expected timeout");
+            } catch (java.io.IOException expected) {}
+            assertTrue(System.currentTimeMillis() - start >= 200);
+        } finally {
+            channel.disconnect();
+        }
+    }
+
+    @Test(expected = org.jpos.core.ConfigurationException.class)
+    public void shouldRejectInvalidLengthPrefix() throws Exception {
+        createChannel("ebcdic4", 1024);
+    }
+}
@@ -1,5 +1,10 @@
 package nz.co.breakpoint.jmeter.iso8583;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import org.jpos.core.Configuration;
 import org.jpos.core.SimpleConfiguration;
 import org.jpos.iso.ISOException;
@@ -24,4 +29,36 @@ public class GroovyRequestListenerTest {
         assertTrue(processed);
         assertEquals("0810", msg.getMTI());
     }
+
+    @Test
+    public void shouldBeThreadSafe() throws Exception {
+        ExecutorService threads = Executors.newFixedThreadPool(8);
+        List<Future<ISOMsg>> results = new ArrayList<>();
+        for (int i = 0; i < 2000; ++i) {
+            results.add(threads.submit(() -> {
+                ISOMsg msg = new ISOMsg("0800");
+                instance.process(null, msg);
+                return msg;
+            }));
+        }
+        for (Future<ISOMsg> result : results) {
+            assertEquals("0810", result.get().getMTI());
+        }
+        threads.shutdown();
+    }
+
+    @Test
+    public void shouldRunOnThreadPool() throws Exception {
+        Configuration cfg = new SimpleConfiguration();
+        cfg.put("source", "src/test/resources/listener.groovy");
+        cfg.put("threads", "2");
+        instance.setConfiguration(cfg);
+
+        ISOMsg msg = new ISOMsg("0800");
+        assertTrue(instance.process(null, msg));
+        for (int i = 0; i < 50 && !"0810".equals(msg.getMTI()); ++i) {
+            Thread.sleep(100);
+        }
+        assertEquals("0810", msg.getMTI());
+    }
 }
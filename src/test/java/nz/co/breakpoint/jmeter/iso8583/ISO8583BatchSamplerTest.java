@@ -0,0 +1,104 @@
+package nz.co.breakpoint.jmeter.iso8583;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import org.apache.jmeter.samplers.Entry;
+import org.apache.jmeter.samplers.SampleResult;
+import org.junit.*;
+
+import static org.junit.Assert.*;
+
+public class ISO8583BatchSamplerTest extends ISO8583TestBase {
+    @ClassRule
+    public static Q2ServerResource q2server = new Q2ServerResource();
+
+    ISO8583BatchSampler instance;
+    static ISO8583Config config = getDefaultTestConfig();
+
+    @BeforeClass
+    public static void setupClass() {
+        config.testStarted(); // shares the Q2 instance with Q2ServerResource
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        config.testEnded();
+    }
+
+    @Before
+    public void setup() {
+        instance = new ISO8583BatchSampler();
+        configureSampler(instance, config, asMessageFields(getDefaultTestMessage()));
+        instance.setTimeout(30000);
+        instance.setResponseCodeField("39");
+        instance.setSuccessResponseCode("00");
+    }
+
+    @Test
+    public void shouldSendBatchWithIncrementedStans() {
+        instance.addField("11", "999998");
+        instance.setBatchSize(5);
+        instance.setMaxPendingRequests(2);
+        SampleResult res = instance.sample(new Entry());
+        assertNotNull(res);
+        assertTrue(res.getResponseMessage(), res.isSuccessful());
+        assertEquals("5 of 5 successful", res.getResponseMessage());
+
+        SampleResult[] subResults = res.getSubResults();
+        assertEquals(5, subResults.length);
+        Set<String> stans = new HashSet<>();
+        for (SampleResult sub : subResults) {
+            assertTrue(sub.isSuccessful());
+            assertTrue(sub.getTime() <= res.getTime());
+            stans.add(sub.getSamplerData().replaceAll("(?s).*<field id=\"11\" value=\"([0-9]+)\".*", "$1"));
+        }
+        assertEquals(new HashSet<>(Arrays.asList("999998", "999999", "000000", "000001", "000002")), stans);
+    }
+
+    @Test
+    public void shouldReadQuotedValuesFromBatchFile() throws Exception {
+        File file = File.createTempFile("batch", ".csv");
+        file.deleteOnExit();
+        Files.write(file.toPath(), Arrays.asList("11, 41 ,43", "100001, TERM1 ,\"SHOP \"\"A\"\", MAIN ST\""));
+        instance.setBatchFile(file.getAbsolutePath());
+        instance.setBatchSize(1);
+        instance.setMaxPendingRequests(0);
+
+        SampleResult res = instance.sample(new Entry());
+        assertTrue(res.getResponseMessage(), res.isSuccessful());
+        String request = res.getSubResults()[0].getSamplerData();
+        assertTrue(request, request.contains("<field id=\"41\" value=\"TERM1\""));
+        assertTrue(request, request.contains("SHOP &quot;A&quot;, MAIN ST"));
+    }
+
+    @Test
+    public void shouldSendBatchFromFile() throws Exception {
+        File file = File.createTempFile("batch", ".csv");
+        file.deleteOnExit();
+        Files.write(file.toPath(), Arrays.asList("11,41", "100001,TERM1", "100002,", "100003,TERM3"));
+        instance.setBatchFile(file.getAbsolutePath());
+        instance.setBatchSize(2);
+        instance.setMaxPendingRequests(0);
+
+        SampleResult res = instance.sample(new Entry());
+        assertTrue(res.getResponseMessage(), res.isSuccessful());
+        assertEquals(2, res.getSubResults().length);
+        assertTrue(res.getSubResults()[0].getSamplerData().contains("TERM1"));
+        assertTrue(res.getSubResults()[1].getSamplerData().contains("JMETER")); // from the template
+
+        res = instance.sample(new Entry()); // continues with the next line, then starts over
+        assertTrue(res.getResponseMessage(), res.isSuccessful());
+        assertTrue(res.getSubResults()[0].getSamplerData().contains("TERM3"));
+        assertTrue(res.getSubResults()[1].getSamplerData().contains("100001"));
+    }
+
+    @Test
+    public void shouldIncrementStanWithinItsLength() {
+        assertEquals("000124", ISO8583BatchSampler.incrementStan("000123", 1));
+        assertEquals("000001", ISO8583BatchSampler.incrementStan("999999", 2));
+        assertEquals("ABC", ISO8583BatchSampler.incrementStan("ABC", 1));
+    }
+}
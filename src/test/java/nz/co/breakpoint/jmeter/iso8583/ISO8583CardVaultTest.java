@@ -0,0 +1,118 @@
+package nz.co.breakpoint.jmeter.iso8583;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import org.apache.jmeter.threads.JMeterContextService;
+import org.apache.jmeter.threads.JMeterVariables;
+import org.jpos.iso.ISOUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class ISO8583CardVaultTest extends ISO8583TestBase {
+
+    ISO8583CardVault instance = new ISO8583CardVault();
+    SecurityModule securityModule = SecurityModule.getInstance();
+    JMeterVariables vars = JMeterContextService.getContext().getVariables();
+    File file;
+
+    @Before
+    public void setup() throws Exception {
+        file = File.createTempFile("cards", ".csv");
+        file.deleteOnExit();
+        Files.write(file.toPath(), Arrays.asList(
+            "PAN,EXP,PSN,PIN",
+            "4111111111111111,01/99,01,9999",
+            "5500000000000004,2512,00,1234"
+        ));
+        instance.setFilename(file.getAbsolutePath());
+    }
+
+    @After
+    public void teardown() {
+        instance.testEnded();
+    }
+
+    @Test
+    public void shouldServeCardsRoundRobin() {
+        instance.testStarted();
+        assertEquals(2, instance.getCardCount());
+
+        instance.iterationStart(null);
+        assertEquals("4111111111111111", vars.get("PAN"));
+        assertEquals("01", vars.get("PSN"));
+        assertEquals(securityModule.calculatePINBlock("9999", "1", "4111111111111111"), vars.get("PINBLOCK"));
+        assertNull(vars.get("CVV"));
+
+        instance.iterationStart(null);
+        assertEquals("5500000000000004", vars.get("PAN"));
+        instance.iterationStart(null);
+        assertEquals("4111111111111111", vars.get("PAN"));
+    }
+
+    @Test
+    public void shouldNotKeepPreviousCardsValues() throws Exception {
+        Files.write(file.toPath(), Arrays.asList(
+            "PAN,EXP,PSN,PIN",
+            "4111111111111111,01/99,01,9999",
+            "5500000000000004,2512", // short line
+            "4111111111111111,01/99,01,9999",
+            "5500000000000004,2512,00," // without PIN
+        ));
+        instance.setCvk(DEFAULT_3DES_KEY);
+        instance.testStarted();
+
+        instance.iterationStart(null);
+        assertNotNull(vars.get("PINBLOCK"));
+        assertEquals("01", vars.get("PSN"));
+        instance.iterationStart(null);
+        assertEquals("5500000000000004", vars.get("PAN"));
+        assertNull(vars.get("PSN"));
+        assertNull(vars.get("PIN"));
+        assertNull(vars.get("PINBLOCK"));
+        assertEquals(securityModule.calculateCVV("5500000000000004", DEFAULT_3DES_KEY, "2512", "101"), vars.get("CVV"));
+
+        instance.iterationStart(null);
+        assertNotNull(vars.get("PINBLOCK"));
+        instance.iterationStart(null);
+        assertEquals("00", vars.get("PSN"));
+        assertEquals("", vars.get("PIN"));
+        assertNull(vars.get("PINBLOCK"));
+    }
+
+    @Test
+    public void shouldUseGivenVariableNames() {
+        instance.setVariableNames("CARD,EXPIRY,SEQ,SECRET");
+        instance.setPanVariable("CARD");
+        instance.setPinVariable("SECRET");
+        instance.testStarted();
+        assertEquals(3, instance.getCardCount()); // header line is a card now
+
+        instance.iterationStart(null);
+        assertEquals("PAN", vars.get("CARD"));
+        instance.iterationStart(null);
+        assertEquals("4111111111111111", vars.get("CARD"));
+        assertEquals(securityModule.calculatePINBlock("9999", "1", "4111111111111111"), vars.get("PINBLOCK"));
+    }
+
+    @Test
+    public void shouldDeriveCryptoMaterial() throws Exception {
+        instance.setPinKey(DEFAULT_3DES_KEY);
+        instance.setCvk(DEFAULT_3DES_KEY);
+        instance.setServiceCode("999");
+        instance.setImkac(DEFAULT_3DES_KEY);
+        instance.testStarted();
+
+        instance.iterationStart(null);
+        String pinBlock = securityModule.calculatePINBlock("9999", "1", "4111111111111111");
+        assertEquals(securityModule.encryptPINBlock(ISOUtil.hex2byte(pinBlock), securityModule.formDESKey(DEFAULT_3DES_KEY)),
+            vars.get("PINBLOCK"));
+        assertEquals(securityModule.calculateCVV("4111111111111111", DEFAULT_3DES_KEY, "9901", "999"), vars.get("CVV"));
+
+        instance.iterationStart(null);
+        assertEquals(securityModule.calculateCVV("5500000000000004", DEFAULT_3DES_KEY, "2512", "999"), vars.get("CVV"));
+        assertTrue(securityModule.iccMasterKeys.size() >= 2);
+    }
+}
@@ -1,7 +1,11 @@
 package nz.co.breakpoint.jmeter.iso8583;
 
+import java.util.Iterator;
+import org.apache.jmeter.testelement.property.AbstractProperty;
+import org.apache.jmeter.testelement.property.CollectionProperty;
 import org.junit.Test;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 public class ISO8583ComponentTest extends ISO8583TestBase {
@@ -28,4 +32,60 @@ public class ISO8583ComponentTest extends ISO8583TestBase {
         assertTrue(instance.hasField("11"));
         assertTrue(instance.hasField("41"));
     }
+
+    @Test
+    public void shouldRemoveTemporaryFieldsWhenRecovering() {
+        instance.setFields(asMessageFields(
+            new MessageField("11", "persistent"),
+            new MessageField("41", "persistent")
+        ));
+        instance.setRunningVersion(true);
+
+        instance.addField(new MessageField("7", "temporary"));
+        instance.addField(new MessageField("41", "temporary"));
+        assertEquals(4, instance.getFields().size()); // all definitions, in order
+        assertEquals("temporary", instance.getIndex().get("41").getContent());
+
+        instance.recoverRunningVersion();
+        assertEquals(2, instance.getFields().size());
+        assertFalse(instance.hasField("7"));
+        assertEquals("persistent", instance.getIndex().get("41").getContent());
+
+        instance.removeField("11");
+        assertFalse(instance.hasField("11"));
+        assertEquals(1, instance.getFieldsAsProperty().size());
+    }
+
+    @Test
+    public void shouldReindexWhenRecoveringSameNumberOfFields() {
+        instance.setFields(asMessageFields(
+            new MessageField("11", "persistent"),
+            new MessageField("41", "persistent")
+        ));
+        assertTrue(instance.hasField("41"));
+
+        // Replaced other than via the component, without changing the number of fields:
+        CollectionProperty fields = instance.getFieldsAsProperty();
+        fields.remove("41");
+        fields.addProperty(AbstractProperty.createProperty(new MessageField("7", "replacement")));
+
+        instance.recoverRunningVersion();
+        assertTrue(instance.hasField("7"));
+        assertFalse(instance.hasField("41"));
+    }
+
+    @Test
+    public void shouldKeepFieldsInDefinitionOrder() {
+        instance.setFields(asMessageFields(
+            new MessageField("41", "first"),
+            new MessageField("11", "000001"),
+            new MessageField("41", "second")
+        ));
+        Iterator<MessageField> fields = instance.getFields().iterator();
+        assertEquals("first", fields.next().getContent());
+        assertEquals("11", fields.next().getName());
+        assertEquals("second", fields.next().getContent());
+        assertFalse(fields.hasNext());
+        assertEquals("second", instance.getIndex().get("41").getContent());
+    }
 }
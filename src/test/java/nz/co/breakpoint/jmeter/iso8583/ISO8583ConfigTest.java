@@ -1,9 +1,23 @@
 package nz.co.breakpoint.jmeter.iso8583;
 
+import java.io.File;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.jpos.iso.ISOMsg;
+import org.jpos.iso.ISOPackager;
+import org.jpos.iso.ISOUtil;
+import org.jpos.iso.channel.ASCIIChannel;
 import org.jpos.iso.channel.XMLChannel;
 import org.jpos.q2.QBean;
 import org.jpos.q2.QBeanSupport;
 import org.jpos.q2.iso.*;
+import org.jpos.space.Space;
+import org.jpos.space.SpaceFactory;
 import org.jpos.util.NameRegistrar;
 import org.junit.*;
 import static org.junit.Assert.*;
@@ -58,6 +72,44 @@ public class ISO8583ConfigTest extends ISO8583TestBase {
         // Channel itself is not running, but only when connection attempt is made
     }
 
+    @Test
+    public void shouldCreateSelectorChannelForNonpersistentDirectBufferChannel() throws Exception {
+        instance.setReuseConnection(false);
+        instance.setClassname(DirectBufferChannel.class.getSimpleName());
+        try (ServerSocket server = new ServerSocket(0)) { // connections are accepted into its backlog
+            instance.setPort(String.valueOf(server.getLocalPort()));
+            QBean qbean = instance.startChannelAdaptor();
+            assertTrue(qbean instanceof SelectorOneShotChannelAdaptor);
+            SelectorOneShotChannelAdaptor channelAdaptor = (SelectorOneShotChannelAdaptor) qbean;
+            assertEquals("jmeter-channel", channelAdaptor.getName());
+            assertSame(channelAdaptor, NameRegistrar.getIfExists("jmeter-channel"));
+            assertTrue(channelAdaptor.running());
+            assertTrue(instance.awaitReady(1, 5000));
+            assertTrue(channelAdaptor.isConnected());
+            instance.stopChannelAdaptor();
+            assertFalse(channelAdaptor.running());
+            assertFalse(channelAdaptor.isConnected());
+            assertNull(NameRegistrar.getIfExists("jmeter-channel"));
+        }
+    }
+
+    @Test
+    public void shouldNotBeReadyWhenSelectorChannelCannotConnect() throws Exception {
+        instance.setReuseConnection(false);
+        instance.setClassname(DirectBufferChannel.class.getSimpleName());
+        try (ServerSocket server = new ServerSocket(0)) {
+            instance.setPort(String.valueOf(server.getLocalPort())); // nothing listening once closed
+        }
+        SelectorOneShotChannelAdaptor channelAdaptor = (SelectorOneShotChannelAdaptor) instance.startChannelAdaptor();
+        try {
+            assertTrue(channelAdaptor.running());
+            assertFalse(instance.awaitReady(1, 1500));
+            assertFalse(channelAdaptor.isConnected());
+        } finally {
+            instance.stopChannelAdaptor();
+        }
+    }
+
     @Test
     public void shouldCreateServer() {
         QBeanSupport qserver = instance.startQServer();
@@ -71,13 +123,196 @@ public class ISO8583ConfigTest extends ISO8583TestBase {
     }
 
     @Test
-    public void shouldCreateMux() {
+    public void shouldSendToLeastOutstandingIncomingConnection() throws Exception {
+        instance.setHost("");
+        instance.setPort("10001");
+        instance.setConnectionSelection(ISO8583Config.ConnectionSelection.LEAST.toTag());
+        QBeanSupport qserver = instance.startQServer();
+        assertTrue(qserver instanceof CountingQServer);
+
+        ISOPackager packager = instance.createPackager();
+        ASCIIChannel[] clients = new ASCIIChannel[]{
+            new ASCIIChannel("localhost", 10001, packager), new ASCIIChannel("localhost", 10001, packager)
+        };
+        List<BlockingQueue<ISOMsg>> received = new ArrayList<>();
+        try {
+            for (ASCIIChannel client : clients) {
+                connect(client);
+                BlockingQueue<ISOMsg> queue = new LinkedBlockingQueue<>();
+                received.add(queue);
+                new Thread(() -> {
+                    try {
+                        while (true) queue.add(client.receive());
+                    } catch (Exception ignoreBecauseDisconnected) {}
+                }).start();
+            }
+            assertTrue(instance.awaitReady(2, 5000));
+
+            Space<String, ISOMsg> sp = SpaceFactory.getSpace();
+            sp.out("jmeter-send", createRequest(0));
+            // The connection that got the first request never responds...
+            ISOMsg msg = received.get(0).poll(5, TimeUnit.SECONDS);
+            final int slow = msg != null ? 0 : 1, fast = 1 - slow;
+            if (msg == null) assertNotNull(received.get(slow).poll(5, TimeUnit.SECONDS));
+
+            // ...so all other requests go to the other one:
+            for (int i = 1; i < 4; ++i) {
+                sp.out("jmeter-send", createRequest(i));
+                msg = received.get(fast).poll(5, TimeUnit.SECONDS);
+                assertNotNull(msg);
+                assertEquals(i, Integer.parseInt(msg.getString(11)));
+                msg.setResponseMTI();
+                clients[fast].send(msg);
+                assertNotNull(sp.in("jmeter-receive", 5000));
+            }
+            assertTrue(received.get(slow).isEmpty());
+
+            Map<String, CountingQServer.ConnectionCounters> counters = ((CountingQServer) qserver).getConnectionCounters();
+            assertEquals(2, counters.size());
+            assertEquals(1, counters.values().stream().mapToInt(CountingQServer.ConnectionCounters::getOutstanding).sum());
+            assertEquals(4, counters.values().stream().mapToLong(CountingQServer.ConnectionCounters::getSent).sum());
+            assertEquals(3, counters.values().stream().mapToLong(CountingQServer.ConnectionCounters::getReceived).sum());
+
+            // Counters of closed connections are only kept as totals:
+            clients[slow].disconnect();
+            for (int retry = 0; retry < 50 && counters.size() > 1; ++retry) ISOUtil.sleep(100);
+            assertEquals(1, counters.size());
+            assertEquals(1, ((CountingQServer) qserver).closedConnections.sum());
+            assertEquals(1, ((CountingQServer) qserver).closedSent.sum());
+        } finally {
+            for (ASCIIChannel client : clients) client.disconnect();
+        }
+    }
+
+    static ISOMsg createRequest(int stan) {
+        ISOMsg msg = new ISOMsg("0800");
+        msg.set(11, String.valueOf(stan));
+        return msg;
+    }
+
+    // The server socket is opened asynchronously:
+    static void connect(ASCIIChannel channel) throws Exception {
+        for (int i = 0; !channel.isConnected(); ++i) {
+            try {
+                channel.connect();
+            } catch (java.io.IOException e) {
+                if (i == 50) throw e;
+                ISOUtil.sleep(100);
+            }
+        }
+    }
+
+    @Test
+    public void shouldAwaitIncomingConnections() throws Exception {
+        instance.setHost("");
+        instance.setPort("10001");
+        instance.startQServer();
+        QMUX mux = (QMUX) instance.startMux();
+        assertFalse(instance.awaitReady(1, 100));
+        assertFalse(mux.isConnected());
+
+        ASCIIChannel client = new ASCIIChannel("localhost", 10001, instance.createPackager());
+        try {
+            connect(client);
+            assertTrue(instance.awaitReady(1, 5000));
+            assertTrue(mux.isConnected());
+        } finally {
+            client.disconnect();
+            instance.stopMux();
+        }
+    }
+
+    @Test
+    public void shouldAwaitOutgoingConnections() {
+        ISO8583Config server = getDefaultTestConfig();
+        server.setConfigKey("jmeter-test");
+        server.setHost("");
+        server.setPort("10002");
+        server.startQServer();
+
+        instance.setPort("10002");
+        instance.setConnections("2");
+        instance.startChannelAdaptor();
+        try {
+            assertTrue(instance.awaitReady(2, 5000));
+            assertTrue(server.awaitReady(2, 5000));
+        } finally {
+            instance.stopChannelAdaptor();
+            server.stopQServer();
+        }
+    }
+
+    @Test
+    public void shouldRespondWithMockResponder() throws Exception {
+        instance.setHost("");
+        instance.setPort("10003");
+        instance.setMockResponseCodes("91");
+        instance.startQServer();
+        instance.startMux();
+
+        ASCIIChannel client = new ASCIIChannel("localhost", 10003, instance.createPackager());
+        try {
+            connect(client);
+            client.send(createRequest(1));
+            ISOMsg response = client.receive();
+            assertEquals("0810", response.getMTI());
+            assertEquals("91", response.getString(39));
+        } finally {
+            client.disconnect();
+            instance.stopMux();
+        }
+    }
+
+    @Test
+    public void shouldCreateMux() throws Exception {
         QBeanSupport mux = instance.startMux();
         assertNotNull(mux);
         assertEquals("jmeter-mux", mux.getName());
         assertNotNull(NameRegistrar.getIfExists("mux.jmeter-mux"));
+        assertSame(mux, instance.getQMux());
         assertTrue(mux.running());
         instance.stopMux();
         assertFalse(mux.running());
     }
+
+    @Test
+    public void shouldCreateConnectionPool() throws Exception {
+        instance.setConnections("3");
+        instance.setConnectionSelection(ISO8583Config.ConnectionSelection.LEAST.toTag());
+        instance.startChannelAdaptor();
+        QBeanSupport mux = instance.startMux();
+        assertTrue(mux instanceof MUXPool);
+        assertEquals("jmeter-mux", mux.getName());
+        assertArrayEquals(new String[]{"jmeter-mux-0", "jmeter-mux-1", "jmeter-mux-2"}, ((MUXPool) mux).getMuxNames());
+        assertTrue(((MUXPool) mux).getStrategyHandler() instanceof LeastOutstandingStrategy);
+        assertNull(instance.getQMux());
+        for (int i = 0; i < 3; ++i) {
+            assertTrue(NameRegistrar.getIfExists("jmeter-channel-"+i) instanceof ChannelAdaptor);
+            assertTrue(NameRegistrar.getIfExists("mux.jmeter-mux-"+i) instanceof CountingQMUX);
+        }
+        instance.stopMux();
+        assertFalse(mux.running());
+        assertNull(NameRegistrar.getIfExists("mux.jmeter-mux-0"));
+    }
+
+    @Test
+    public void shouldSharePackager() {
+        ISOPackager packager = instance.createPackager();
+        assertNotNull(packager);
+        assertSame(packager, getDefaultTestConfig().createPackager());
+    }
+
+    @Test
+    public void shouldReloadModifiedPackager() throws Exception {
+        File file = File.createTempFile("test-packager", ".xml");
+        file.deleteOnExit();
+        Files.copy(new File(defaultPackagerFile).toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        instance.setPackager(file.getAbsolutePath());
+
+        ISOPackager packager = instance.createPackager();
+        assertSame(packager, instance.createPackager());
+
+        assertTrue(file.setLastModified(file.lastModified() - 60000));
+        assertNotSame(packager, instance.createPackager());
+    }
 }
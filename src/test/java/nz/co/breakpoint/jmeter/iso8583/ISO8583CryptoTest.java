@@ -5,6 +5,7 @@ import java.util.Collection;
 import java.util.stream.Collectors;
 import org.jpos.iso.ISOException;
 import org.jpos.iso.ISOMsg;
+import org.jpos.iso.ISOUtil;
 import org.jpos.tlv.ISOTaggedField;
 import org.junit.Before;
 import org.junit.Test;
@@ -123,6 +124,22 @@ public class ISO8583CryptoTest extends ISO8583TestBase {
         assertEquals(192, msg.getMaxField());
     }
 
+    @Test
+    public void shouldCalculateMACOverPackedMessage() throws Exception {
+        instance.setMacAlgorithm("DESEDE");
+        instance.setMacKey(DEFAULT_3DES_KEY);
+        instance.process();
+        ISOMsg msg = sampler.getRequest();
+        assertTrue(((CachingISOMsg) msg).isPacked()); // patched with the MAC rather than discarded
+        byte[] packed = msg.pack();
+
+        SecurityModule securityModule = SecurityModule.getInstance();
+        // MAC field is packed as 16 hex digits:
+        String expected = securityModule.generateMAC(Arrays.copyOf(packed, packed.length - 16),
+            securityModule.getClearKey(DEFAULT_3DES_KEY, "DESEDE"), "DESEDE");
+        assertEquals(ISOUtil.padright(expected, 16, 'f').toUpperCase(), msg.getString(64));
+    }
+
     @Test
     public void shouldCalculateARQC() throws ISOException {
         sampler.setFields(iccData);
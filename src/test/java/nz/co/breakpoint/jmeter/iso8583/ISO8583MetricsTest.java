@@ -0,0 +1,122 @@
+package nz.co.breakpoint.jmeter.iso8583;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.*;
+import org.HdrHistogram.Histogram;
+import org.apache.jmeter.util.JMeterUtils;
+import org.jpos.iso.ISOMsg;
+import org.jpos.iso.ISOPackager;
+import org.junit.After;
+import org.junit.Test;
+import static nz.co.breakpoint.jmeter.iso8583.ISO8583Metrics.Phase.*;
+import static nz.co.breakpoint.jmeter.iso8583.ISO8583TestElement.*;
+import static org.junit.Assert.*;
+
+public class ISO8583MetricsTest extends ISO8583TestBase {
+
+    public static class TestReporter implements MetricsReporter {
+        static final List<SortedMap<String, Histogram>> reports = new ArrayList<>();
+        static SortedMap<String, Histogram> summary;
+
+        @Override
+        public void report(long timestamp, long intervalMillis, SortedMap<String, Histogram> histograms, boolean summary) {
+            if (summary) {
+                TestReporter.summary = histograms;
+            } else {
+                reports.add(histograms);
+            }
+        }
+    }
+
+    @After
+    public void teardown() {
+        JMeterUtils.getJMeterProperties().remove(METRICS_REPORTER);
+        JMeterUtils.getJMeterProperties().remove(METRICS_FILE);
+        TestReporter.reports.clear();
+        TestReporter.summary = null;
+    }
+
+    // Simulates what the sampler and channel do during a sample:
+    void recordSample(ISOPackager packager) throws Exception {
+        long buildStart = System.nanoTime();
+        ISOMsg request = packager.createISOMsg();
+        request.setPackager(packager);
+        request.setMTI("0800");
+        request.set(11, "123456");
+        request.set(41, "JMETER");
+        request.pack();
+        long sendStart = System.nanoTime();
+        byte[] sent = request.pack(); // channel picking up the request
+
+        ISOMsg response = packager.createISOMsg();
+        response.setPackager(packager);
+        response.unpack(sent); // channel receiving the response
+        response.set(39, "00");
+        ISO8583Metrics.record(request, response, buildStart, sendStart, System.nanoTime());
+    }
+
+    @Test
+    public void shouldNotRecordWithoutReporter() throws Exception {
+        ISO8583Metrics.start();
+        assertFalse(ISO8583Metrics.isEnabled());
+        recordSample(PackagerRegistry.getPackager(defaultPackagerFile));
+        ISO8583Metrics.stop();
+        assertNull(TestReporter.summary);
+    }
+
+    @Test
+    public void shouldRecordPhasesPerMTIAndResponseCode() throws Exception {
+        JMeterUtils.setProperty(METRICS_REPORTER, TestReporter.class.getName());
+        ISO8583Metrics.start();
+        ISO8583Metrics.start(); // e.g. by another config element
+        assertTrue(ISO8583Metrics.isEnabled());
+
+        ISOPackager packager = PackagerRegistry.getPackager(defaultPackagerFile);
+        recordSample(packager);
+        recordSample(packager);
+
+        ISO8583Metrics.stop();
+        assertTrue(ISO8583Metrics.isEnabled());
+        ISO8583Metrics.stop();
+        assertFalse(ISO8583Metrics.isEnabled());
+
+        assertFalse(TestReporter.reports.isEmpty());
+        assertNotNull(TestReporter.summary);
+        for (ISO8583Metrics.Phase phase : ISO8583Metrics.Phase.values()) {
+            Histogram h = TestReporter.summary.get(ISO8583Metrics.key("0800", "00", phase));
+            assertNotNull(phase.toString(), h);
+            assertEquals(2, h.getTotalCount());
+        }
+    }
+
+    @Test
+    public void shouldRecordCorrectedLatencyFromScheduledStart() throws Exception {
+        JMeterUtils.setProperty(METRICS_REPORTER, TestReporter.class.getName());
+        ISO8583Metrics.start();
+        ISOMsg request = new ISOMsg("0200"), response = new ISOMsg("0210");
+        response.set(39, "00");
+        final long sendStart = System.nanoTime(), ms = 1000000L;
+        ISO8583Metrics.record(request, response, sendStart, sendStart, sendStart + 10*ms, sendStart - 90*ms);
+        ISO8583Metrics.stop();
+
+        assertEquals(10, TestReporter.summary.get(ISO8583Metrics.key("0200", "00", TOTAL)).getMaxValue()/1000.0, 0.1);
+        assertEquals(100, TestReporter.summary.get(ISO8583Metrics.key("0200", "00", CORRECTED)).getMaxValue()/1000.0, 0.1);
+    }
+
+    @Test
+    public void shouldWriteCSVFile() throws Exception {
+        File file = File.createTempFile("iso8583-metrics", ".csv");
+        file.deleteOnExit();
+        JMeterUtils.setProperty(METRICS_REPORTER, "csv");
+        JMeterUtils.setProperty(METRICS_FILE, file.getAbsolutePath());
+        ISO8583Metrics.start();
+        recordSample(PackagerRegistry.getPackager(defaultPackagerFile));
+        ISO8583Metrics.stop();
+
+        List<String> lines = Files.readAllLines(file.toPath());
+        assertTrue(lines.get(0).startsWith("timeStamp,interval,summary,mti,rc,phase,count"));
+        assertTrue(lines.stream().anyMatch(l -> l.matches("\\d+,\\d+,true,0800,00,total,1\\.0,.*")));
+        assertTrue(lines.stream().anyMatch(l -> l.matches("\\d+,\\d+,false,0800,00,"+WIRE+",1\\.0,.*")));
+    }
+}
@@ -2,9 +2,22 @@ package nz.co.breakpoint.jmeter.iso8583;
 
 import org.apache.jmeter.samplers.Entry;
 import org.apache.jmeter.samplers.SampleResult;
+import org.apache.jmeter.util.JMeterUtils;
 import org.jpos.iso.ISOMsg;
+import org.jpos.iso.ISOUtil;
+import org.jpos.iso.MUX;
+import org.jpos.util.NameRegistrar;
 import org.junit.*;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.ConcurrentModificationException;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import static org.junit.Assert.*;
@@ -84,6 +97,314 @@ public class ISO8583SamplerIntegrationTest extends ISO8583TestBase {
         assertFalse(res.isSuccessful());
     }
 
+    @Test
+    public void shouldRenderDetailsOnlyAsConfigured() {
+        instance.setTimeout(5000);
+        instance.setResponseCodeField("39");
+        instance.setSuccessResponseCode("00");
+        try {
+            JMeterUtils.setProperty(ISO8583TestElement.RESULT_DETAIL, "none");
+            ISO8583Sampler.ResultDetail.reload();
+            SampleResult res = instance.sample(new Entry());
+            assertTrue(res.isSuccessful());
+            assertNull(res.getSamplerData());
+            assertTrue(res.getResponseDataAsString().isEmpty());
+            assertTrue(res.getBytesAsLong() > 0);
+
+            JMeterUtils.setProperty(ISO8583TestElement.RESULT_DETAIL, "onError");
+            ISO8583Sampler.ResultDetail.reload();
+            res = instance.sample(new Entry());
+            assertTrue(res.isSuccessful());
+            assertNull(res.getSamplerData());
+
+            instance.setSuccessResponseCode("99");
+            res = instance.sample(new Entry());
+            assertFalse(res.isSuccessful());
+            assertTrue(res.getSamplerData().startsWith("<isomsg"));
+            assertTrue(res.getResponseDataAsString().startsWith("<isomsg"));
+        } finally {
+            JMeterUtils.getJMeterProperties().remove(ISO8583TestElement.RESULT_DETAIL);
+            ISO8583Sampler.ResultDetail.reload();
+        }
+    }
+
+    @Test
+    public void shouldKeepMultipleRequestsPending() {
+        instance.setTimeout(30000); // long enough for other tests' delayed messages
+        instance.setMaxPendingRequests(3);
+        instance.addField("35", ""); // simulate delay
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < 3; i++) {
+            instance.addField("11", String.format("%06d", i));
+            assertNull(instance.sample(new Entry())); // none of the responses arrived yet
+        }
+        assertTrue(System.currentTimeMillis() - start < 1000);
+
+        instance.addField("11", "000003");
+        SampleResult res = instance.sample(new Entry()); // has to wait for the first response
+        assertNotNull(res);
+        assertTrue(res.isSuccessful());
+        assertTrue(res.getTime() >= 1000);
+        assertEquals("000000", instance.getResponse().getString(11));
+    }
+
+    @Test
+    public void shouldReportTimeoutAsynchronously() {
+        instance.setTimeout(500);
+        instance.setMaxPendingRequests(2);
+        instance.addField("35", ""); // simulate delay
+        SampleResult res = null;
+        for (int i = 0; i < 3 && res == null; i++) { // latest when the third request is sent
+            instance.addField("11", String.format("%06d", 999990+i));
+            res = instance.sample(new Entry());
+        }
+        assertNotNull(res);
+        assertFalse(res.isSuccessful());
+        assertEquals("Timeout", res.getResponseMessage());
+        assertNull(instance.getResponse());
+    }
+
+    @Test
+    public void shouldSendAtArrivalRate() {
+        instance.setTimeout(30000);
+        instance.setMaxPendingRequests(0); // unlimited
+        instance.setArrivalRate("20");
+        List<SampleResult> results = new ArrayList<>();
+        long start = System.currentTimeMillis();
+        for (int i = 0; results.size() < 10 && System.currentTimeMillis() - start < 10000; i++) {
+            instance.addField("11", String.format("%06d", 800000+i));
+            SampleResult res = instance.sample(new Entry());
+            if (res != null) results.add(res);
+        }
+        assertEquals(10, results.size());
+        results.sort(Comparator.comparingLong(SampleResult::getStartTime));
+        long spread = results.get(9).getStartTime() - results.get(0).getStartTime();
+        assertTrue("spread "+spread, spread >= 9*50 - 10 && spread < 9*50 + 200);
+    }
+
+    @Test
+    public void shouldMeasureFromScheduledTime() {
+        instance.setTimeout(30000);
+        instance.setMaxPendingRequests(1);
+        instance.setArrivalRate("10");
+        instance.addField("35", ""); // simulate delay
+        instance.addField("11", "810000");
+        assertNull(instance.sample(new Entry()));
+
+        instance.addField("11", "810001");
+        SampleResult first = instance.sample(new Entry()); // waits for the first response, then sends
+        assertNotNull(first);
+        assertEquals("810000", instance.getResponse().getString(11));
+        assertTrue(first.getTime() >= 1000 && first.getTime() < 1500);
+
+        instance.addField("11", "810002");
+        SampleResult second = instance.sample(new Entry());
+        assertNotNull(second);
+        assertEquals("810001", instance.getResponse().getString(11));
+        // scheduled 100 ms after the first one, but only sent once that completed:
+        assertTrue("time "+second.getTime(), second.getTime() >= 1800);
+        assertTrue("latency "+second.getLatency(), second.getLatency() >= 1000 && second.getLatency() < 1500);
+        assertEquals(100, second.getStartTime() - first.getStartTime(), 20);
+    }
+
+    @Test
+    public void shouldMeasureFromPacedScheduledStart() {
+        JMeterUtils.setProperty(ISO8583TestElement.SCHEDULED_START_VARIABLE, "scheduledStart");
+        try {
+            instance.setTimeout(30000);
+            final long scheduled = System.currentTimeMillis() - 500; // e.g. held up by a previous slow response
+            ctx.context.getVariables().put("scheduledStart", String.valueOf(scheduled));
+            SampleResult res = instance.sample(new Entry());
+            assertNotNull(res);
+            assertEquals("OK", res.getResponseMessage());
+            assertEquals(scheduled, res.getStartTime());
+            assertTrue("time "+res.getTime(), res.getTime() >= 500);
+            assertTrue("latency "+res.getLatency(), res.getLatency() < res.getTime());
+            assertNull(ctx.context.getVariables().get("scheduledStart"));
+
+            res = instance.sample(new Entry()); // not scheduled
+            assertTrue("time "+res.getTime(), res.getTime() < 500);
+        } finally {
+            JMeterUtils.getJMeterProperties().remove(ISO8583TestElement.SCHEDULED_START_VARIABLE);
+        }
+    }
+
+    @Test
+    public void shouldSendViaMultipleConnections() {
+        ISO8583Config pool = getDefaultTestConfig();
+        pool.setConfigKey("pool");
+        pool.setConnections("2");
+        pool.setConnectionSelection(ISO8583Config.ConnectionSelection.LEAST.toTag());
+        pool.startChannelAdaptor();
+        pool.startMux();
+        try {
+            for (int i = 0; i < 2; ++i) { // wait for both connections, otherwise the first one gets all requests
+                MUX mux = (MUX) NameRegistrar.getIfExists("mux."+pool.getMuxName(i));
+                for (int retry = 0; retry < 50 && !mux.isConnected(); ++retry) ISOUtil.sleep(100);
+            }
+            instance = new ISO8583Sampler();
+            configureSampler(instance, pool, asMessageFields(getDefaultTestMessage()));
+            instance.setTimeout(30000);
+            for (int i = 0; i < 4; ++i) {
+                instance.addField("11", String.format("%06d", 777770+i));
+                SampleResult res = instance.sample(new Entry());
+                assertEquals("OK", res.getResponseMessage());
+                assertEquals(String.format("%06d", 777770+i), instance.getResponse().getString(11));
+            }
+            int tx = 0;
+            for (int i = 0; i < 2; ++i) {
+                CountingQMUX mux = (CountingQMUX) NameRegistrar.getIfExists("mux."+pool.getMuxName(i));
+                assertTrue(mux.getTXCounter() > 0);
+                assertEquals(0, mux.getOutstanding());
+                tx += mux.getTXCounter();
+            }
+            assertEquals(4, tx);
+        } finally { // not testStarted/testEnded, as that would stop the Q2 instance shared with other tests
+            pool.stopMux();
+            pool.stopChannelAdaptor();
+        }
+    }
+
+    @Test
+    public void shouldSendViaDirectBufferChannel() {
+        ISO8583Config direct = getDefaultTestConfig();
+        direct.setConfigKey("direct");
+        direct.setClassname(DirectBufferChannel.class.getSimpleName());
+        direct.startChannelAdaptor();
+        direct.startMux();
+        try {
+            MUX mux = (MUX) NameRegistrar.getIfExists("mux."+direct.getMuxName());
+            for (int retry = 0; retry < 50 && !mux.isConnected(); ++retry) ISOUtil.sleep(100);
+            instance = new ISO8583Sampler();
+            configureSampler(instance, direct, asMessageFields(getDefaultTestMessage()));
+            instance.setTimeout(30000);
+            for (int i = 0; i < 3; ++i) {
+                instance.addField("11", String.format("%06d", 888880+i));
+                SampleResult res = instance.sample(new Entry());
+                assertEquals("OK", res.getResponseMessage());
+                assertEquals(String.format("%06d", 888880+i), instance.getResponse().getString(11));
+            }
+        } finally { // not testStarted/testEnded, as that would stop the Q2 instance shared with other tests
+            direct.stopMux();
+            direct.stopChannelAdaptor();
+        }
+    }
+
+    @Test
+    public void shouldSendOverOneShotConnectionsViaSelector() {
+        ISO8583Config oneShot = getDefaultTestConfig();
+        oneShot.setConfigKey("oneshot");
+        oneShot.setClassname(DirectBufferChannel.class.getSimpleName());
+        oneShot.setReuseConnection(false);
+        oneShot.setMaxConnections("5");
+        ChannelConfigItem prewarm = new ChannelConfigItem();
+        prewarm.setName("prewarm");
+        prewarm.setValue("2");
+        ChannelConfigItem linger = new ChannelConfigItem();
+        linger.setName("linger");
+        linger.setValue("0");
+        ChannelConfigItem bufferSize = new ChannelConfigItem();
+        bufferSize.setName("buffer-size");
+        bufferSize.setValue("16"); // smaller than the messages
+        oneShot.setChannelConfig(new ArrayList<>(Arrays.asList(prewarm, linger, bufferSize)));
+        SelectorOneShotChannelAdaptor adaptor = (SelectorOneShotChannelAdaptor) oneShot.startChannelAdaptor();
+        oneShot.startMux();
+        try {
+            assertNotNull(adaptor);
+            instance = new ISO8583Sampler();
+            configureSampler(instance, oneShot, asMessageFields(getDefaultTestMessage()));
+            instance.setTimeout(30000);
+            for (int i = 0; i < 3; ++i) {
+                instance.addField("11", String.format("%06d", 777770+i));
+                ISOMsg request = instance.getRequest();
+                SampleResult res = instance.sample(new Entry());
+                assertEquals("OK", res.getResponseMessage());
+                assertEquals(String.format("%06d", 777770+i), instance.getResponse().getString(11));
+                assertTrue(res.getConnectTime() >= 0);
+                assertTrue(((CachingISOMsg) request).getConnectTime() >= 0);
+            }
+            for (int retry = 0; retry < 50 && adaptor.spare.size() < 2; ++retry) ISOUtil.sleep(100); // replenished
+            assertEquals(2, adaptor.spare.size());
+        } finally { // not testStarted/testEnded, as that would stop the Q2 instance shared with other tests
+            oneShot.stopMux();
+            oneShot.stopChannelAdaptor();
+        }
+        assertEquals(3, adaptor.responses);
+        assertEquals(0, adaptor.failures);
+        assertEquals(0, adaptor.open);
+    }
+
+    @Test
+    public void shouldMeasureConnectTimeViaSelector() {
+        ISO8583Config oneShot = getDefaultTestConfig();
+        oneShot.setConfigKey("oneshot");
+        oneShot.setClassname(DirectBufferChannel.class.getSimpleName());
+        oneShot.setReuseConnection(false);
+        SelectorOneShotChannelAdaptor adaptor = (SelectorOneShotChannelAdaptor) oneShot.startChannelAdaptor();
+        oneShot.startMux();
+        try {
+            instance = new ISO8583Sampler();
+            configureSampler(instance, oneShot, asMessageFields(getDefaultTestMessage()));
+            instance.setTimeout(30000);
+            ISOMsg request = instance.getRequest();
+            SampleResult res = instance.sample(new Entry());
+            assertEquals("OK", res.getResponseMessage());
+            assertTrue(((CachingISOMsg) request).getConnectTime() > 0); // no spare connection
+            assertEquals(1, adaptor.connects);
+        } finally {
+            oneShot.stopMux();
+            oneShot.stopChannelAdaptor();
+        }
+    }
+
+    @Test
+    public void shouldRejectStrangeLengthsViaSelector() throws Exception {
+        final int[] prefixes = { 0x7FFFFFFF, 0xFFFFFFFF }; // oversized, negative
+        try (ServerSocket server = new ServerSocket(0)) {
+            Thread peer = new Thread(() -> {
+                int responses = 0;
+                while (responses < prefixes.length) {
+                    try (Socket s = server.accept()) {
+                        DataInputStream in = new DataInputStream(s.getInputStream());
+                        in.readFully(new byte[in.readInt()]); // connections without a request get EOFException
+                        new DataOutputStream(s.getOutputStream()).writeInt(prefixes[responses++]);
+                        in.read(); // until closed by the adaptor
+                    } catch (IOException e) {
+                        if (server.isClosed()) return;
+                    }
+                }
+            });
+            peer.setDaemon(true);
+            peer.start();
+
+            ISO8583Config oneShot = getDefaultTestConfig();
+            oneShot.setConfigKey("oneshot");
+            oneShot.setClassname(DirectBufferChannel.class.getSimpleName());
+            oneShot.setReuseConnection(false);
+            oneShot.setPort(String.valueOf(server.getLocalPort()));
+            ChannelConfigItem lengthPrefix = new ChannelConfigItem();
+            lengthPrefix.setName("length-prefix");
+            lengthPrefix.setValue("binary4");
+            oneShot.setChannelConfig(new ArrayList<>(Arrays.asList(lengthPrefix)));
+            SelectorOneShotChannelAdaptor adaptor = (SelectorOneShotChannelAdaptor) oneShot.startChannelAdaptor();
+            oneShot.startMux();
+            try {
+                instance = new ISO8583Sampler();
+                configureSampler(instance, oneShot, asMessageFields(getDefaultTestMessage()));
+                instance.setTimeout(1000);
+                for (int i = 0; i < prefixes.length; ++i) {
+                    SampleResult res = instance.sample(new Entry());
+                    assertFalse(res.isSuccessful());
+                    assertEquals(i + 1, adaptor.failures);
+                }
+                assertEquals(0, adaptor.responses);
+            } finally {
+                oneShot.stopMux();
+                oneShot.stopChannelAdaptor();
+            }
+        }
+    }
+
     @Test // Issue 24
     public void testConcurrency() throws InterruptedException {
         AtomicBoolean exceptionThrown = new AtomicBoolean(false);
@@ -5,6 +5,7 @@ import java.util.Arrays;
 import org.apache.jmeter.control.GenericController;
 import org.apache.jmeter.threads.TestCompiler;
 import org.apache.jorphan.collections.ListedHashTree;
+import org.jpos.iso.ISOMsg;
 import org.junit.Before;
 import org.junit.Test;
 import static org.junit.Assert.*;
@@ -18,6 +19,20 @@ public class ISO8583SamplerTest extends ISO8583TestBase {
         configureSampler(instance);
     }
 
+    @Test
+    public void shouldParseArrivalRateOnlyWhenChanged() {
+        assertEquals(0, instance.getArrivalRateValue(), 0);
+        instance.setArrivalRate("2.5");
+        assertEquals(2.5, instance.getArrivalRateValue(), 0);
+        assertEquals("2.5", instance.arrivalRateSpec);
+        instance.setArrivalRate("invalid");
+        assertEquals(0, instance.getArrivalRateValue(), 0);
+        assertEquals("invalid", instance.arrivalRateSpec); // not parsed (and logged) again
+        assertEquals(0, instance.getArrivalRateValue(), 0);
+        instance.setArrivalRate("");
+        assertEquals(0, instance.getArrivalRateValue(), 0);
+    }
+
     @Test
     public void shouldApplyClosestConfig() {
         ISO8583Config inner = new ISO8583Config();
@@ -95,4 +110,20 @@ public class ISO8583SamplerTest extends ISO8583TestBase {
         assertEquals(3, instance.getFields().size());
         assertTrue(instance.getRequest().hasFields(new int[]{0, 11, 41}));
     }
+
+    @Test
+    public void shouldReuseRequestUntilFieldsChange() {
+        instance.addTestElement(getDefaultTestConfig());
+        instance.addField("0", "0800");
+        ISOMsg request = instance.getRequest();
+        assertSame(request, instance.getRequest());
+
+        instance.addField("11", "1234");
+        assertSame(request, instance.getRequest());
+        assertEquals("1234", request.getString(11));
+
+        instance.removeField("11");
+        assertNotSame(request, instance.getRequest());
+        assertFalse(instance.getRequest().hasField(11));
+    }
 }
@@ -1,5 +1,6 @@
 package nz.co.breakpoint.jmeter.iso8583;
 
+import org.apache.jmeter.util.JMeterUtils;
 import org.jpos.iso.ISOException;
 import org.jpos.iso.ISOMsg;
 import org.jpos.iso.ISOUtil;
@@ -169,4 +170,39 @@ public class MessageBuilderTest extends ISO8583TestBase {
         assertEquals("00000000000010001122334455FFFFFF", new String(msg.pack()));
     }
 
+    @Test
+    public void shouldReuseCompiledFields() throws ISOException {
+        MessageField field = new MessageField("52", "1122334455667788");
+        instance.define(Arrays.asList(field));
+        MessageBuilder.FieldTemplate template = instance.templates.get("52");
+        assertNotNull(template);
+        assertTrue(template.binary);
+
+        field.setContent("8877665544332211");
+        ISOMsg msg = instance.define(Arrays.asList(field)).getMessage();
+        assertSame(template, instance.templates.get("52"));
+        assertEquals("00000000000010008877665544332211", new String(msg.pack()));
+
+        field.setTag("a1"); // different definition needs recompiling
+        instance.define(Arrays.asList(field));
+        assertNotSame(template, instance.templates.get("52"));
+    }
+
+    @Test
+    public void shouldRecogniseBinaryFieldTags() {
+        assertTrue(instance.isBinaryFieldTag("9f26"));
+        assertTrue(instance.isBinaryFieldTag("9F26"));
+        assertFalse(instance.isBinaryFieldTag("9a"));
+        assertFalse(instance.isBinaryFieldTag("a1"));
+
+        JMeterUtils.setProperty(ISO8583TestElement.BINARY_FIELD_TAGS, "A1,a2");
+        try {
+            assertTrue(instance.isBinaryFieldTag("a1"));
+            assertTrue(instance.isBinaryFieldTag("A2"));
+            assertFalse(instance.isBinaryFieldTag("a3"));
+        } finally {
+            JMeterUtils.setProperty(ISO8583TestElement.BINARY_FIELD_TAGS, "");
+        }
+        assertFalse(instance.isBinaryFieldTag("a1"));
+    }
 }
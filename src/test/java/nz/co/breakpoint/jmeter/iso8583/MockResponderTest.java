@@ -0,0 +1,111 @@
+package nz.co.breakpoint.jmeter.iso8583;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.jpos.core.Configuration;
+import org.jpos.core.ConfigurationException;
+import org.jpos.core.SimpleConfiguration;
+import org.jpos.iso.ISOMsg;
+import org.jpos.iso.ISOSource;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class MockResponderTest {
+    MockResponder instance = new MockResponder();
+    BlockingQueue<ISOMsg> sent = new LinkedBlockingQueue<>();
+    ISOSource source = new ISOSource() {
+        @Override
+        public void send(ISOMsg m) { sent.add(m); }
+
+        @Override
+        public boolean isConnected() { return true; }
+    };
+
+    ISOMsg createRequest(String mti) {
+        ISOMsg msg = new ISOMsg(mti);
+        msg.set(2, "4111111111111111");
+        msg.set(11, "123456");
+        return msg;
+    }
+
+    void configure(String... properties) throws ConfigurationException {
+        Configuration cfg = new SimpleConfiguration();
+        for (int i = 0; i < properties.length; i += 2) {
+            cfg.put(properties[i], properties[i+1]);
+        }
+        instance.setConfiguration(cfg);
+    }
+
+    @Test
+    public void shouldRespondToAllRequests() throws Exception {
+        configure();
+        ISOMsg request = createRequest("0200");
+        assertTrue(instance.process(source, request));
+        ISOMsg response = sent.poll();
+        assertNotNull(response);
+        assertEquals("0210", response.getMTI());
+        assertEquals("00", response.getString(39));
+        assertEquals("123456", response.getString(11));
+        assertEquals("4111111111111111", response.getString(2));
+        assertEquals("0200", request.getMTI());
+        assertFalse(request.hasField(39));
+
+        assertFalse(instance.process(source, response));
+        assertTrue(sent.isEmpty());
+    }
+
+    @Test
+    public void shouldRespondAsConfigured() throws Exception {
+        configure("mti-mapping", "0200=0210,0800=0810", "echo-fields", "11", "response-codes", "05");
+        assertFalse(instance.process(source, createRequest("0100")));
+        assertTrue(instance.process(source, createRequest("0800")));
+        ISOMsg response = sent.poll();
+        assertNotNull(response);
+        assertEquals("0810", response.getMTI());
+        assertEquals("05", response.getString(39));
+        assertEquals("123456", response.getString(11));
+        assertFalse(response.hasField(2));
+    }
+
+    @Test
+    public void shouldPickWeightedResponseCodes() throws Exception {
+        configure("response-codes", "00=3,05=1");
+        int approved = 0;
+        for (int i = 0; i < 4000; ++i) {
+            instance.process(source, createRequest("0200"));
+            if ("00".equals(sent.poll().getString(39))) ++approved;
+        }
+        assertEquals(3000, approved, 200);
+    }
+
+    @Test
+    public void shouldDelayResponses() throws Exception {
+        configure("latency", "100-150");
+        long start = System.nanoTime();
+        assertTrue(instance.process(source, createRequest("0200")));
+        assertNotNull(sent.poll(5, TimeUnit.SECONDS));
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue("elapsed "+elapsed, elapsed >= 100);
+    }
+
+    @Test(expected = ConfigurationException.class)
+    public void shouldRejectInvalidLatency() throws Exception {
+        configure("latency", "50-10");
+    }
+
+    @Test(expected = ConfigurationException.class)
+    public void shouldRejectExponentialLatencyRange() throws Exception {
+        configure("latency", "exp:30-60");
+    }
+
+    @Test(expected = ConfigurationException.class)
+    public void shouldRejectZeroTotalWeight() throws Exception {
+        configure("response-codes", "00=0,05=0");
+    }
+
+    @Test(expected = ConfigurationException.class)
+    public void shouldRejectNegativeWeight() throws Exception {
+        configure("response-codes", "00=5,05=-3");
+    }
+}
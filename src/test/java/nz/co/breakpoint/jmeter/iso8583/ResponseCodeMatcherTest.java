@@ -0,0 +1,48 @@
+package nz.co.breakpoint.jmeter.iso8583;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class ResponseCodeMatcherTest {
+
+    @Test
+    public void shouldMatchListOfCodes() {
+        ResponseCodeMatcher instance = new ResponseCodeMatcher("00, 08;10");
+        assertTrue(instance.matches("0110", "00"));
+        assertTrue(instance.matches(null, "08"));
+        assertTrue(instance.matches("0110", "10"));
+        assertFalse(instance.matches("0110", "05"));
+        assertFalse(instance.matches("0110", null));
+    }
+
+    @Test
+    public void shouldMatchRanges() {
+        ResponseCodeMatcher instance = new ResponseCodeMatcher("00-05,Y1");
+        assertTrue(instance.matches("0110", "00"));
+        assertTrue(instance.matches("0110", "03"));
+        assertTrue(instance.matches("0110", "05"));
+        assertTrue(instance.matches("0110", "Y1"));
+        assertFalse(instance.matches("0110", "06"));
+        assertFalse(instance.matches("0110", "0"));
+    }
+
+    @Test
+    public void shouldMatchPerMTI() {
+        ResponseCodeMatcher instance = new ResponseCodeMatcher("0810=00 0110=00,08,10");
+        assertTrue(instance.matches("0810", "00"));
+        assertFalse(instance.matches("0810", "08"));
+        assertTrue(instance.matches("0110", "08"));
+        assertFalse(instance.matches("0210", "00")); // no rule for this MTI, and no default
+        assertFalse(instance.matches(null, "00"));
+
+        instance = new ResponseCodeMatcher("00 0110=00,08");
+        assertTrue(instance.matches("0110", "08"));
+        assertFalse(instance.matches("0210", "08"));
+        assertTrue(instance.matches("0210", "00"));
+
+        instance = new ResponseCodeMatcher("0110=00 05 0810=");
+        assertTrue(instance.matches("0110", "05")); // bare codes belong to the preceding MTI
+        assertFalse(instance.matches("0210", "05"));
+        assertTrue(instance.matches("0810", "99")); // any code
+    }
+}
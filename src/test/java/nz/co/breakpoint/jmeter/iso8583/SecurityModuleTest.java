@@ -0,0 +1,84 @@
+package nz.co.breakpoint.jmeter.iso8583;
+
+import java.security.Key;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.jpos.iso.ISOUtil;
+import org.jpos.security.SMAdapter;
+import org.jpos.security.SecureDESKey;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class SecurityModuleTest extends ISO8583TestBase {
+
+    SecurityModule instance = new SecurityModule();
+
+    @Test
+    public void shouldShareInstance() {
+        assertSame(SecurityModule.getInstance(), SecurityModule.getInstance());
+    }
+
+    @Test
+    public void shouldBeThreadSafe() throws Exception {
+        final SecurityModule shared = SecurityModule.getInstance();
+        final String pinBlock = "041234FFFFFFFFFF", mac = "DESEDE";
+        final Key pinKey = shared.formDESKey(DEFAULT_3DES_KEY), macKey = shared.getClearKey(DEFAULT_3DES_KEY, mac);
+        final String expectedPIN = shared.encryptPINBlock(ISOUtil.hex2byte(pinBlock), pinKey),
+            expectedMAC = shared.generateMAC(ISOUtil.hex2byte(pinBlock), macKey, mac),
+            expectedKCV = shared.calculateKeyCheckValue(DEFAULT_DES_KEY);
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int i = 0; i < 32; ++i) {
+                results.add(executor.submit((Callable<Boolean>) () -> {
+                    for (int j = 0; j < 100; ++j) {
+                        if (!expectedPIN.equals(shared.encryptPINBlock(ISOUtil.hex2byte(pinBlock), pinKey))
+                            || !expectedMAC.equals(shared.generateMAC(ISOUtil.hex2byte(pinBlock), macKey, mac))
+                            || !expectedKCV.equals(shared.calculateKeyCheckValue(DEFAULT_DES_KEY))) {
+                            return false;
+                        }
+                    }
+                    return true;
+                }));
+            }
+            for (Future<Boolean> result : results) {
+                assertTrue(result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void shouldReuseClearKeys() {
+        Key key = instance.getClearKey(DEFAULT_3DES_KEY, "DESede");
+        assertSame(key, instance.getClearKey(DEFAULT_3DES_KEY, "DESede"));
+        assertSame(key, instance.formDESKey(DEFAULT_3DES_KEY));
+        assertNotSame(key, instance.getClearKey(DEFAULT_3DES_KEY, "HmacSHA256"));
+        assertEquals("DES", instance.formDESKey(DEFAULT_DES_KEY).getAlgorithm());
+    }
+
+    @Test
+    public void shouldReuseSecureKeys() throws Exception {
+        SecureDESKey key = instance.getSecureKey(SMAdapter.LENGTH_DES3_2KEY, SMAdapter.TYPE_MK_AC, DEFAULT_3DES_KEY);
+        assertSame(key, instance.getSecureKey(SMAdapter.LENGTH_DES3_2KEY, SMAdapter.TYPE_MK_AC, DEFAULT_3DES_KEY));
+        assertNotSame(key, instance.getSecureKey(SMAdapter.LENGTH_DES3_2KEY, SMAdapter.TYPE_MK_SMI, DEFAULT_3DES_KEY));
+    }
+
+    @Test
+    public void shouldEvictLeastRecentlyUsedEntries() {
+        LRUMap<String, Integer> map = new LRUMap<>(2);
+        map.put("a", 1);
+        map.put("b", 2);
+        map.get("a");
+        map.put("c", 3);
+        assertEquals(2, map.size());
+        assertTrue(map.containsKey("a"));
+        assertFalse(map.containsKey("b"));
+    }
+}
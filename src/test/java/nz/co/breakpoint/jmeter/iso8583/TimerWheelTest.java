@@ -0,0 +1,47 @@
+package nz.co.breakpoint.jmeter.iso8583;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.Map;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class TimerWheelTest {
+    TimerWheel instance = new TimerWheel(1, 16);
+
+    @After
+    public void teardown() throws Exception {
+        instance.stop();
+        instance.thread.join(1000);
+        assertFalse(instance.isRunning());
+    }
+
+    @Test
+    public void shouldRunTasksNoEarlierThanTheirDelay() throws Exception {
+        final int tasks = 200;
+        final CountDownLatch done = new CountDownLatch(tasks);
+        final Map<Integer, Long> early = new ConcurrentHashMap<>();
+        final long start = System.nanoTime();
+        for (int i = 0; i < tasks; ++i) {
+            final int delay = i % 50; // spans several rounds of the wheel
+            instance.schedule(() -> {
+                long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                if (elapsed < delay) early.put(delay, elapsed);
+                done.countDown();
+            }, delay);
+        }
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertTrue(early.toString(), early.isEmpty());
+    }
+
+    @Test
+    public void shouldResumeAfterIdling() throws Exception {
+        CountDownLatch first = new CountDownLatch(1), second = new CountDownLatch(1);
+        instance.schedule(first::countDown, 0);
+        assertTrue(first.await(1, TimeUnit.SECONDS));
+        Thread.sleep(100);
+        instance.schedule(second::countDown, 20);
+        assertTrue(second.await(1, TimeUnit.SECONDS));
+    }
+}